@@ -17,10 +17,15 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 
 public class TestDb extends AndroidTestCase {
 
@@ -105,6 +110,135 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    public void testWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Cursor c = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(c.moveToFirst());
+        assertEquals("Error: The database should be in write-ahead logging mode",
+                "wal", c.getString(0).toLowerCase());
+        c.close();
+
+        db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue("Error: An idle database should checkpoint", dbHelper.checkpoint());
+        dbHelper.close();
+    }
+
+    public void testUpgradeKeepsData() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId));
+        // Take the database back to version 4, from before the migration table.
+        db.execSQL("DROP TABLE " + WeatherContract.MigrationEntry.TABLE_NAME);
+        db.setVersion(4);
+        dbHelper.close();
+
+        dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        Cursor c = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null,
+                null, null);
+        assertEquals("Error: The upgrade should keep the stored weather", 1, c.getCount());
+        c.close();
+        c = db.query(WeatherContract.MigrationEntry.TABLE_NAME, null, null, null, null, null,
+                null);
+        assertEquals("Error: The upgrade should add the migration table", 0, c.getCount());
+        c.close();
+        dbHelper.close();
+    }
+
+    public void testUpgradeMakesDatesJulianDays() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        // Version 5 kept the local midnight of the day in milliseconds.
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.getDateMillis(TestUtilities.TEST_DAY));
+        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        db.setVersion(5);
+        dbHelper.close();
+
+        dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getWritableDatabase();
+        Cursor c = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null, null,
+                null);
+        assertTrue(c.moveToFirst());
+        assertEquals("Error: The upgrade should turn the date into its Julian day",
+                TestUtilities.TEST_DAY, c.getInt(0));
+        c.close();
+        dbHelper.close();
+    }
+
+    public void testBackfillRunsInChunks() {
+        final int rows = WeatherDbHelper.BACKFILL_CHUNK * 2 + 1;
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        // A step that fills in a new column of a table of its own.
+        db.execSQL("CREATE TABLE backfill_test (_id INTEGER PRIMARY KEY, value INTEGER)");
+        db.beginTransaction();
+        for (int i = 0; i < rows; i++) {
+            ContentValues values = new ContentValues();
+            values.put("value", i);
+            db.insert("backfill_test", null, values);
+        }
+        db.setTransactionSuccessful();
+        db.endTransaction();
+        Migration migration = new Migration(WeatherDbHelper.DATABASE_VERSION + 1) {
+            @Override
+            void migrateSchema(SQLiteDatabase db) {
+                db.execSQL("ALTER TABLE backfill_test ADD COLUMN doubled INTEGER");
+            }
+
+            @Override
+            long countBackfill(SQLiteDatabase db) {
+                return DatabaseUtils.queryNumEntries(db, "backfill_test", "doubled IS NULL");
+            }
+
+            @Override
+            int backfill(SQLiteDatabase db, int limit) {
+                return db.compileStatement("UPDATE backfill_test SET doubled = value * 2 " +
+                        "WHERE _id IN (SELECT _id FROM backfill_test WHERE doubled IS NULL " +
+                        "LIMIT " + limit + ")").executeUpdateDelete();
+            }
+        };
+        migration.migrateSchema(db);
+        WeatherDbHelper.recordBackfill(db, migration);
+
+        final List<Long> progress = new ArrayList<Long>();
+        dbHelper.setBackfillListener(new WeatherDbHelper.BackfillListener() {
+            @Override
+            public void onBackfillProgress(int version, long rowsDone, long rowsTotal) {
+                assertEquals(rows, rowsTotal);
+                progress.add(rowsDone);
+            }
+        });
+        dbHelper.backfill(db, migration);
+
+        assertEquals("Error: The backfill should commit a chunk at a time",
+                Arrays.asList((long) WeatherDbHelper.BACKFILL_CHUNK,
+                        (long) WeatherDbHelper.BACKFILL_CHUNK * 2, (long) rows, (long) rows),
+                progress);
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, "backfill_test", "doubled IS NULL"));
+        Cursor c = db.query(WeatherContract.MigrationEntry.TABLE_NAME,
+                new String[]{WeatherContract.MigrationEntry.COLUMN_FINISHED}, null, null, null,
+                null, null);
+        assertTrue(c.moveToFirst());
+        assertEquals("Error: A finished backfill should be recorded as finished", 1, c.getInt(0));
+        c.close();
+        dbHelper.close();
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    // intentionally includes a slash and a comma to make sure the file name is encoded
+    private static final String TEST_LOCATION = "/North Pole, AK";
+    private static final int DAYS = 14;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ForecastSnapshot.delete(mContext, TEST_LOCATION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastSnapshot.delete(mContext, TEST_LOCATION);
+        super.tearDown();
+    }
+
+    private void writeSnapshot(String firstDesc) throws Exception {
+        int[] dates = new int[DAYS];
+        int[] weatherIds = new int[DAYS];
+        String[] shortDescs = new String[DAYS];
+        double[] maxTemps = new double[DAYS];
+        double[] minTemps = new double[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            dates[i] = TestUtilities.TEST_DAY + i;
+            weatherIds[i] = 800 + i;
+            shortDescs[i] = i == 0 ? firstDesc : "Clear";
+            maxTemps[i] = 75 + i;
+            minTemps[i] = 65 - i;
+        }
+        ForecastSnapshot.write(mContext, TEST_LOCATION, DAYS, dates, weatherIds, shortDescs,
+                maxTemps, minTemps);
+    }
+
+    public void testReadsTheDayFromTheDate() throws Exception {
+        assertNull("Error: A snapshot that was never written",
+                ForecastSnapshot.read(mContext, TEST_LOCATION, TestUtilities.TEST_DAY));
+        writeSnapshot("Asteroids");
+
+        WeatherSummary summary = ForecastSnapshot.read(mContext, TEST_LOCATION,
+                TestUtilities.TEST_DAY);
+        assertNotNull(summary);
+        assertEquals(TestUtilities.TEST_DAY, summary.date);
+        assertEquals(800, summary.weatherId);
+        assertEquals("Asteroids", summary.shortDesc);
+        assertEquals(75.0, summary.maxTemp);
+        assertEquals(65.0, summary.minTemp);
+
+        summary = ForecastSnapshot.read(mContext, TEST_LOCATION, TestUtilities.TEST_DAY + 4);
+        assertEquals(804, summary.weatherId);
+        assertNull("Error: A date past the last day",
+                ForecastSnapshot.read(mContext, TEST_LOCATION,
+                        TestUtilities.TEST_DAY + DAYS));
+    }
+
+    public void testLongDescriptionsAreCutWhole() throws Exception {
+        // Two bytes a character in UTF-8, and one more than fits.
+        StringBuilder desc = new StringBuilder();
+        for (int i = 0; i < ForecastSnapshot.MAX_DESC_BYTES / 2 + 1; i++) {
+            desc.append('\u00e9');
+        }
+        writeSnapshot(desc.toString());
+        WeatherSummary summary = ForecastSnapshot.read(mContext, TEST_LOCATION,
+                TestUtilities.TEST_DAY);
+        assertEquals(desc.substring(0, ForecastSnapshot.MAX_DESC_BYTES / 2), summary.shortDesc);
+        assertEquals("Error: The next record should be untouched",
+                "Clear", ForecastSnapshot.read(mContext, TEST_LOCATION,
+                        TestUtilities.TEST_DAY + 1).shortDesc);
+    }
+
+    public void testOtherVersionsAreIgnored() throws Exception {
+        writeSnapshot("Asteroids");
+        assertTrue(ForecastSnapshot.isCurrent(mContext, TEST_LOCATION));
+        File file = ForecastSnapshot.getFile(mContext, TEST_LOCATION);
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(4);
+            raw.writeInt(ForecastSnapshot.VERSION + 1);
+        } finally {
+            raw.close();
+        }
+        assertNull("Error: A snapshot of a newer version should be left to the provider",
+                ForecastSnapshot.read(mContext, TEST_LOCATION, TestUtilities.TEST_DAY));
+        assertFalse("Error: The sync should write a snapshot of another version again",
+                ForecastSnapshot.isCurrent(mContext, TEST_LOCATION));
+    }
+
+    public void testRewritingLeavesNoTempFile() throws Exception {
+        writeSnapshot("Asteroids");
+        writeSnapshot("Meteors");
+        File file = ForecastSnapshot.getFile(mContext, TEST_LOCATION);
+        assertFalse(new File(file.getParentFile(), file.getName() + ".tmp").exists());
+        assertEquals("Meteors", ForecastSnapshot.read(mContext, TEST_LOCATION,
+                TestUtilities.TEST_DAY).shortDesc);
+    }
+
+    /*
+        How long reading a day out of a snapshot takes.  The number goes to the log.
+     */
+    public void testReadBenchmark() throws Exception {
+        writeSnapshot("Asteroids");
+        final int reads = 2000;
+        ForecastSnapshot.read(mContext, TEST_LOCATION, TestUtilities.TEST_DAY);
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < reads; i++) {
+            assertNotNull(ForecastSnapshot.read(mContext, TEST_LOCATION,
+                    TestUtilities.TEST_DAY));
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, reads + " snapshot reads: " + elapsed * 1000 / reads + " us each");
+    }
+}
@@ -16,20 +16,32 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,11 +68,21 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.ArchiveEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -147,11 +169,11 @@ public class TestProvider extends AndroidTestCase {
         assertEquals("Error: the WeatherEntry CONTENT_URI with location should return WeatherEntry.CONTENT_TYPE",
                 WeatherEntry.CONTENT_TYPE, type);
 
-        long testDate = 1419120000L; // December 21st, 2014
-        // content://com.example.android.sunshine.app/weather/94074/20140612
+        int testDate = 2457013; // December 21st, 2014
+        // content://com.example.android.sunshine.app/weather/94074/2457013
         type = mContext.getContentResolver().getType(
                 WeatherEntry.buildWeatherLocationWithDate(testLocation, testDate));
-        // vnd.android.cursor.item/com.example.android.sunshine.app/weather/1419120000
+        // vnd.android.cursor.item/com.example.android.sunshine.app/weather/2457013
         assertEquals("Error: the WeatherEntry CONTENT_URI with location and date should return WeatherEntry.CONTENT_ITEM_TYPE",
                 WeatherEntry.CONTENT_ITEM_TYPE, type);
 
@@ -372,7 +394,7 @@ public class TestProvider extends AndroidTestCase {
         // Get the joined Weather and Location data with a start date
         weatherCursor = mContext.getContentResolver().query(
                 WeatherEntry.buildWeatherLocationWithStartDate(
-                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DAY),
                 null, // leaving "columns" null just returns all the columns.
                 null, // cols for "where" clause
                 null, // values for "where" clause
@@ -383,7 +405,7 @@ public class TestProvider extends AndroidTestCase {
 
         // Get the joined Weather data for a specific date
         weatherCursor = mContext.getContentResolver().query(
-                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DAY),
                 null,
                 null,
                 null,
@@ -423,12 +445,12 @@ public class TestProvider extends AndroidTestCase {
 
 
     static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
+    static private final int BENCHMARK_CHUNK = 1000;
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
-        long currentTestDate = TestUtilities.TEST_DATE;
-        long millisecondsInADay = 1000*60*60*24;
+        int currentTestDate = TestUtilities.TEST_DAY;
         ContentValues[] returnContentValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
 
-        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, currentTestDate+= millisecondsInADay ) {
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, currentTestDate++ ) {
             ContentValues weatherValues = new ContentValues();
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, currentTestDate);
@@ -512,4 +534,856 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testUpsertSkipsUnchangedRows() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        int changed = mContext.getContentResolver().bulkInsert(upsertUri, values);
+        assertEquals("Error: Every new date should be inserted",
+                BULK_INSERT_RECORDS_TO_INSERT, changed);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        long firstId = cursor.getLong(0);
+        cursor.close();
+
+        // The same forecast again shouldn't write anything.
+        changed = mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: Unchanged rows should not be written", 0, changed);
+
+        // Only the day that differs, and only its changed column, should be written.
+        values = createBulkInsertWeatherValues(locationRowId);
+        values[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DAY), false, dayObserver);
+        changed = mContext.getContentResolver().bulkInsert(upsertUri, values);
+        dayObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        assertEquals("Error: Only the changed date should be written", 1, changed);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: An updated row should keep its _ID",
+                firstId, cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+        TestUtilities.validateCurrentRecord("testUpsertSkipsUnchangedRows. Error validating "
+                + "the updated WeatherEntry", cursor, values[0]);
+        cursor.close();
+
+        // A day upserted with only some of its columns keeps the rest.
+        ContentValues partial = new ContentValues();
+        partial.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+        partial.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DAY);
+        partial.put(WeatherEntry.COLUMN_SHORT_DESC, "Comets");
+        changed = mContext.getContentResolver().bulkInsert(upsertUri,
+                new ContentValues[]{partial});
+        assertEquals(1, changed);
+        values[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Comets");
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("testUpsertSkipsUnchangedRows. Error validating "
+                + "the partly updated WeatherEntry", cursor, values[0]);
+        cursor.close();
+    }
+
+    public void testDatesMustBeJulianDays() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        // The same day in milliseconds, as dates were stored before.
+        values[0].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE * 1000);
+        try {
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values[0]);
+            fail("Error: A date in milliseconds should not be inserted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                    values);
+            fail("Error: A date in milliseconds should not be upserted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: A rejected batch should write nothing", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testSnapshotFollowsTheDatabase() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(), values);
+        rewriteSnapshot(ForecastSnapshot.getGeneration());
+        WeatherSummary summary = ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DAY);
+        assertNotNull("Error: The snapshot should be written from the stored days", summary);
+        assertEquals("Asteroids", summary.shortDesc);
+
+        // A write to one day only drops it, until it is written again.
+        values[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                new ContentValues[]{values[0]});
+        assertFalse("Error: Changing a day should delete the snapshot",
+                ForecastSnapshot.isCurrent(mContext, TestUtilities.TEST_LOCATION));
+        rewriteSnapshot(ForecastSnapshot.getGeneration());
+        assertEquals("Meteors", ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DAY).shortDesc);
+
+        // Days read before a write aren't written after it.
+        long generation = ForecastSnapshot.getGeneration();
+        values[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Comets");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                new ContentValues[]{values[0]});
+        rewriteSnapshot(generation);
+        assertFalse("Error: A stale rewrite should not bring the snapshot back",
+                ForecastSnapshot.isCurrent(mContext, TestUtilities.TEST_LOCATION));
+
+        // Once the days are gone, so is the snapshot.
+        rewriteSnapshot(ForecastSnapshot.getGeneration());
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertFalse("Error: Deleting the days should delete the snapshot",
+                ForecastSnapshot.isCurrent(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    // Writes the test location's snapshot the way the sync does.
+    private void rewriteSnapshot(long generation) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                ForecastSnapshot.COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            ForecastSnapshot.rewrite(mContext, TestUtilities.TEST_LOCATION, cursor, generation);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testLocationUpsertForgetsDeletedLocations() {
+        Uri upsertUri = LocationEntry.buildLocationUpsertUri();
+        Uri first = mContext.getContentResolver().insert(upsertUri,
+                TestUtilities.createNorthPoleLocationValues());
+        Uri again = mContext.getContentResolver().insert(upsertUri,
+                TestUtilities.createNorthPoleLocationValues());
+        assertEquals("Error: The upsert should return the stored location", first, again);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: The upsert should not add the location twice", 1, cursor.getCount());
+        cursor.close();
+
+        // Once the location is gone, the upsert has to add it again rather than trust the id
+        // it had.
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri readded = mContext.getContentResolver().insert(upsertUri,
+                TestUtilities.createNorthPoleLocationValues());
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The upsert should return the new row",
+                cursor.getLong(0), ContentUris.parseId(readded));
+        cursor.close();
+    }
+
+    public void testLocationUpsertUpdatesStoredLocation() {
+        Uri upsertUri = LocationEntry.buildLocationUpsertUri();
+        Uri first = mContext.getContentResolver().insert(upsertUri,
+                TestUtilities.createNorthPoleLocationValues());
+
+        // The second upsert finds the id cached, and still has to write the new name and place.
+        ContentValues moved = TestUtilities.createNorthPoleLocationValues();
+        moved.put(LocationEntry.COLUMN_CITY_NAME, "Santa Claus Village");
+        moved.put(LocationEntry.COLUMN_COORD_LAT, 66.5436);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, 25.8473);
+        TestUtilities.TestContentObserver locationObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true,
+                locationObserver);
+        Uri again = mContext.getContentResolver().insert(upsertUri, moved);
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        assertEquals("Error: The upsert should return the stored location", first, again);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("testLocationUpsertUpdatesStoredLocation. Error "
+                + "validating the updated location", cursor, moved);
+        cursor.close();
+    }
+
+    static ArrayList<ContentProviderOperation> createForecastBatch() {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.buildLocationUpsertUri())
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues value : createBulkInsertWeatherValues(0)) {
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(value)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        return operations;
+    }
+
+    public void testApplyBatchIsAtomic() throws Exception {
+        // A failed assertion at the end of the batch should undo everything before it.
+        ArrayList<ContentProviderOperation> operations = createForecastBatch();
+        operations.add(ContentProviderOperation.newAssertQuery(LocationEntry.CONTENT_URI)
+                .withExpectedCount(0)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: The assertion in the batch should have failed");
+        } catch (OperationApplicationException expected) {
+        }
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: A failed batch should not leave a location behind",
+                0, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                null);
+        assertEquals("Error: A failed batch should not leave weather behind",
+                0, cursor.getCount());
+        cursor.close();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createForecastBatch());
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        for (int i = 1; i < results.length; i++) {
+            assertEquals("Error: Every new date should be written", 1, results[i].count.intValue());
+        }
+
+        // The same batch again finds the stored location and changes nothing.
+        results = mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createForecastBatch());
+        assertEquals("Error: The location upsert should return the stored row",
+                locationRowId, ContentUris.parseId(results[0].uri));
+        for (int i = 1; i < results.length; i++) {
+            assertEquals("Error: Unchanged dates should not be written",
+                    0, results[i].count.intValue());
+        }
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)}, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testNotificationsStayWithTheirLocation() throws Exception {
+        // Another location, with a day that is older than anything in the forecast batch.
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "10001");
+        long otherRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+        ContentValues otherDay = TestUtilities.createWeatherValues(otherRowId);
+        otherDay.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DAY - 1);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, otherDay);
+
+        TestUtilities.TestContentObserver syncedObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                syncedObserver);
+        TestUtilities.TestContentObserver otherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("10001"), true, otherObserver);
+
+        // A forecast batch the way the sync adapter builds it, with its prune.
+        ArrayList<ContentProviderOperation> operations = createForecastBatch();
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                + WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{null, Integer.toString(TestUtilities.TEST_DAY)})
+                .withSelectionBackReference(0, 0)
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        syncedObserver.waitForNotificationOrFail();
+        // Give a stray notification the same time to arrive.
+        SystemClock.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+        otherObserver.mHT.quit();
+        assertFalse("Error: Storing one location's forecast should not notify another's",
+                otherObserver.mContentChanged);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(otherRowId)}, null);
+        assertEquals("Error: One location's prune should not touch another's days",
+                1, cursor.getCount());
+        cursor.close();
+    }
+
+    private int countRollupDays(String period) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherRollup(TestUtilities.TEST_LOCATION, period),
+                null, null, null, null);
+        int days = 0;
+        while (cursor.moveToNext()) {
+            days += cursor.getInt(cursor.getColumnIndex(WeatherContract.RollupEntry.COLUMN_DAYS));
+        }
+        cursor.close();
+        return days;
+    }
+
+    public void testArchiveKeepsHistory() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        Uri historyUri = WeatherEntry.buildWeatherHistory(TestUtilities.TEST_LOCATION, 0,
+                Integer.MAX_VALUE);
+
+        // Half the days go to the archive.
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DAY + 5);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_ARCHIVE, TestUtilities.TEST_LOCATION, extras);
+        assertEquals(5, result.getInt(WeatherContract.KEY_COUNT));
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: Archived days should leave the weather table", 5, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(historyUri, null, null, null, null);
+        assertEquals("Error: History should span both tiers",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        int lastDate = Integer.MIN_VALUE;
+        int dateIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        while (cursor.moveToNext()) {
+            assertTrue("Error: History should be oldest first",
+                    cursor.getInt(dateIndex) > lastDate);
+            lastDate = cursor.getInt(dateIndex);
+        }
+        cursor.close();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                countRollupDays(WeatherContract.RollupEntry.PERIOD_WEEK));
+
+        // Long after, everything is archived and folded into rollups, which still count
+        // every day.
+        extras.putInt(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DAY
+                + WeatherContract.ArchiveEntry.DAILY_RETENTION_DAYS + 30);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_ARCHIVE, TestUtilities.TEST_LOCATION, extras);
+        cursor = mContext.getContentResolver().query(historyUri, null, null, null, null);
+        assertEquals("Error: Folded days should leave the daily history", 0, cursor.getCount());
+        cursor.close();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                countRollupDays(WeatherContract.RollupEntry.PERIOD_WEEK));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                countRollupDays(WeatherContract.RollupEntry.PERIOD_MONTH));
+    }
+
+    public void testAggregatesSumUpTheWindow() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherEntry.COLUMN_DATE,
+                TestUtilities.TEST_DAY + BULK_INSERT_RECORDS_TO_INSERT);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_ARCHIVE, TestUtilities.TEST_LOCATION, extras);
+
+        // Every day is in the month, and each day's midpoint is 70.
+        Cursor cursor = mContext.getContentResolver().query(
+                AggregateEntry.buildAggregateLocationWithWindow(TestUtilities.TEST_LOCATION,
+                        AggregateEntry.WINDOW_MONTH), null, null, null, null);
+        assertTrue("Error: No aggregate for the month", cursor.moveToFirst());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getInt(cursor.getColumnIndex(AggregateEntry.COLUMN_DAYS)));
+        assertEquals(56.0, cursor.getDouble(cursor.getColumnIndex(AggregateEntry.COLUMN_MIN_TEMP)));
+        assertEquals(84.0, cursor.getDouble(cursor.getColumnIndex(AggregateEntry.COLUMN_MAX_TEMP)));
+        assertEquals(70.0, cursor.getDouble(
+                cursor.getColumnIndex(AggregateEntry.COLUMN_MEAN_TEMP)), 1e-9);
+        assertEquals(0.0, cursor.getDouble(
+                cursor.getColumnIndex(AggregateEntry.COLUMN_VARIANCE_TEMP)), 1e-9);
+        assertEquals(6.4, cursor.getDouble(
+                cursor.getColumnIndex(AggregateEntry.COLUMN_MEAN_WIND_SPEED)), 1e-4);
+        assertEquals(0.33, cursor.getDouble(
+                cursor.getColumnIndex(AggregateEntry.COLUMN_VARIANCE_WIND_SPEED)), 1e-4);
+        cursor.close();
+
+        // The week leaves out the first three days.
+        cursor = mContext.getContentResolver().query(
+                AggregateEntry.buildAggregateLocationWithWindow(TestUtilities.TEST_LOCATION,
+                        AggregateEntry.WINDOW_WEEK), null, null, null, null);
+        assertTrue("Error: No aggregate for the week", cursor.moveToFirst());
+        assertEquals(AggregateEntry.WINDOW_WEEK,
+                cursor.getInt(cursor.getColumnIndex(AggregateEntry.COLUMN_DAYS)));
+        assertEquals(1.23, cursor.getDouble(
+                cursor.getColumnIndex(AggregateEntry.COLUMN_MIN_HUMIDITY)), 1e-4);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                AggregateEntry.buildAggregateLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: Expected one row per window", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    static WeatherBatch createWeatherBatch(int rows) {
+        WeatherBatch batch = new WeatherBatch(TestUtilities.createNorthPoleLocationValues(), rows);
+        for (int i = 0; i < rows; i++) {
+            int row = batch.addRow();
+            batch.dates[row] = TestUtilities.TEST_DAY + i;
+            batch.degrees[row] = 1.1;
+            batch.humidities[row] = 1.2 + 0.01 * (float) i;
+            batch.pressures[row] = 1.3 - 0.01 * (float) i;
+            batch.maxTemps[row] = 75 + i;
+            batch.minTemps[row] = 65 - i;
+            batch.shortDescs[row] = "Asteroids";
+            batch.windSpeeds[row] = 5.5 + 0.2 * (float) i;
+            batch.weatherIds[row] = 321;
+        }
+        return batch;
+    }
+
+    private Bundle ingestForResult(WeatherBatch batch) {
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_INGEST, null, batch.toBundle());
+    }
+
+    private int ingest(WeatherBatch batch) {
+        return ingestForResult(batch).getInt(WeatherContract.KEY_COUNT);
+    }
+
+    public void testIngestUpsertsPackedRows() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // The batch brings its location along.
+        Bundle result = ingestForResult(createWeatherBatch(BULK_INSERT_RECORDS_TO_INSERT));
+        assertEquals("Error: Every new date should be inserted", BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.KEY_COUNT));
+        Cursor location = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertEquals("Error: The ingest should add the location once", 1, location.getCount());
+        assertTrue(location.moveToFirst());
+        long locationRowId = location.getLong(0);
+        location.close();
+        assertEquals(locationRowId, result.getLong(WeatherEntry.COLUMN_LOC_KEY));
+        ContentValues[] expected = createBulkInsertWeatherValues(locationRowId);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null,
+                null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        long firstId = cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID));
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testIngestUpsertsPackedRows.  Error validating "
+                    + "WeatherEntry " + i, cursor, expected[i]);
+        }
+        cursor.close();
+
+        assertEquals("Error: Unchanged rows should not be written", 0,
+                ingest(createWeatherBatch(BULK_INSERT_RECORDS_TO_INSERT)));
+
+        // Only the changed date is notified, so the observers of the others stay quiet.
+        TestUtilities.TestContentObserver otherDayObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DAY + 1), false, otherDayObserver);
+        WeatherBatch changed = createWeatherBatch(BULK_INSERT_RECORDS_TO_INSERT);
+        changed.shortDescs[0] = "Meteors";
+        assertEquals("Error: Only the changed date should be written", 1, ingest(changed));
+        // Give a stray notification time to arrive.
+        SystemClock.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+        otherDayObserver.mHT.quit();
+        assertFalse("Error: An unchanged date should not be notified",
+                otherDayObserver.mContentChanged);
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: An updated row should keep its _ID",
+                firstId, cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+        assertEquals("Meteors",
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        cursor.close();
+    }
+
+    public void testIngestClearsOutWhatHasGoneBy() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long slotMillis = 3 * 60 * 60 * 1000;
+        int slots = 8;
+        ContentValues[] hourly = new ContentValues[slots];
+        for (int i = 0; i < slots; i++) {
+            hourly[i] = new ContentValues();
+            hourly[i].put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            hourly[i].put(HourlyEntry.COLUMN_TIME, TestUtilities.TEST_DATE + i * slotMillis);
+            hourly[i].put(HourlyEntry.COLUMN_TEMP, 10);
+            hourly[i].put(HourlyEntry.COLUMN_HUMIDITY, 50);
+            hourly[i].put(HourlyEntry.COLUMN_WIND_SPEED, 2.5);
+            hourly[i].put(HourlyEntry.COLUMN_WEATHER_ID, 800);
+        }
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, hourly);
+
+        // The days before the cutoff go to the archive, and the slots before theirs go.
+        WeatherBatch batch = createWeatherBatch(BULK_INSERT_RECORDS_TO_INSERT);
+        batch.archiveBefore = TestUtilities.TEST_DAY + 5;
+        batch.hourlyBefore = TestUtilities.TEST_DATE + 3 * slotMillis;
+        TestUtilities.TestContentObserver archiveObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.ArchiveEntry.CONTENT_URI, false, archiveObserver);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, ingest(batch));
+        archiveObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(archiveObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: Archived days should leave the weather table", 5, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(WeatherEntry.buildWeatherHistory(
+                TestUtilities.TEST_LOCATION, 0, Integer.MAX_VALUE), null, null, null, null);
+        assertEquals("Error: Archived days should be kept as history",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(HourlyEntry.CONTENT_URI, null, null, null,
+                null);
+        assertEquals("Error: Slots that have gone by should be deleted", slots - 3,
+                cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Rows per second for the ContentValues bulk insert and for the packed ingest, at the
+        size of a forecast, a large batch and a very large one.  It runs on a device like the
+        other tests and only logs the numbers, which depend on the device, so it asserts
+        nothing about them.  A ContentValues[] of the largest size doesn't fit in a test heap,
+        so that path writes it in bulk inserts of BENCHMARK_CHUNK rows, which is what a caller
+        would have to do.
+     */
+    public void testIngestBenchmark() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        int[] sizes = {14, 1000, 100000};
+
+        // Warm up both paths, so compiling statements doesn't show up in the numbers.
+        ingest(createWeatherBatch(1));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{TestUtilities.createWeatherValues(locationRowId)});
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        for (int size : sizes) {
+            long start = SystemClock.elapsedRealtime();
+            for (int written = 0; written < size; written += BENCHMARK_CHUNK) {
+                ContentValues[] values = new ContentValues[Math.min(BENCHMARK_CHUNK,
+                        size - written)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = TestUtilities.createWeatherValues(locationRowId);
+                    values[i].put(WeatherEntry.COLUMN_DATE,
+                            TestUtilities.TEST_DAY + written + i);
+                }
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+            }
+            long contentValuesMillis = Math.max(SystemClock.elapsedRealtime() - start, 1);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            start = SystemClock.elapsedRealtime();
+            int ingested = ingest(createWeatherBatch(size));
+            long packedMillis = Math.max(SystemClock.elapsedRealtime() - start, 1);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+            assertEquals(size, ingested);
+
+            Log.i(LOG_TAG, size + " rows: ContentValues " + size * 1000L / contentValuesMillis
+                    + " rows/s, packed " + size * 1000L / packedMillis + " rows/s");
+        }
+    }
+
+    public void testWeatherSummary() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        // A day missing from the table gives the next one, on both paths.
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Integer.toString(TestUtilities.TEST_DAY)});
+        int date = TestUtilities.TEST_DAY;
+        WeatherSummary summary = WeatherSummary.fromProvider(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, date);
+        WeatherSummary expected = WeatherSummary.fromCursor(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, date);
+        assertNotNull("Error: No summary for a day we have", summary);
+        assertEquals(expected.date, summary.date);
+        assertEquals(values[1].getAsInteger(WeatherEntry.COLUMN_DATE).intValue(), summary.date);
+        assertEquals(expected.weatherId, summary.weatherId);
+        assertEquals(expected.shortDesc, summary.shortDesc);
+        assertEquals(expected.maxTemp, summary.maxTemp);
+        assertEquals(expected.minTemp, summary.minTemp);
+        assertFalse(summary.isFor(date));
+
+        assertNull("Error: A summary past the last day",
+                WeatherSummary.fromProvider(mContext.getContentResolver(),
+                        TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DAY + 100));
+
+        // A write to the day shows up in the next summary.
+        values[1].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                new ContentValues[]{values[1]});
+        summary = WeatherSummary.fromProvider(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, date);
+        assertEquals("Meteors", summary.shortDesc);
+    }
+
+    /*
+        Summaries per second through the summary method and through the cursor the widgets used
+        to read.  The numbers go to the log.
+     */
+    public void testSummaryBenchmark() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        final int calls = 2000;
+
+        // Warm up both paths, so reading the snapshot in doesn't show up in the numbers.
+        WeatherSummary.fromProvider(mContext.getContentResolver(), TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DAY);
+        WeatherSummary.fromCursor(mContext.getContentResolver(), TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DAY);
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < calls; i++) {
+            assertNotNull(WeatherSummary.fromCursor(mContext.getContentResolver(),
+                    TestUtilities.TEST_LOCATION, TestUtilities.TEST_DAY));
+        }
+        long cursorMillis = Math.max(SystemClock.elapsedRealtime() - start, 1);
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < calls; i++) {
+            assertNotNull(WeatherSummary.fromProvider(mContext.getContentResolver(),
+                    TestUtilities.TEST_LOCATION, TestUtilities.TEST_DAY));
+        }
+        long callMillis = Math.max(SystemClock.elapsedRealtime() - start, 1);
+
+        Log.i(LOG_TAG, calls + " summaries: cursor " + calls * 1000L / cursorMillis
+                + "/s, call " + calls * 1000L / callMillis + "/s");
+    }
+
+    /*
+        Stress test: queries the way DetailFragment does while a large ingest is writing to the
+        same database, and logs how long they took.  With write-ahead logging a reader never
+        waits for the writer's transaction, so no query should take anywhere near as long as
+        the ingest.
+     */
+    public void testQueryLatencyDuringIngest() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        ingest(createWeatherBatch(BULK_INSERT_RECORDS_TO_INSERT));
+        final WeatherBatch large = createWeatherBatch(100000);
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DAY);
+
+        final AtomicLong ingestMillis = new AtomicLong();
+        final AtomicReference<Throwable> ingestError = new AtomicReference<Throwable>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    ingest(large);
+                } catch (Throwable t) {
+                    ingestError.set(t);
+                }
+                ingestMillis.set(SystemClock.elapsedRealtime() - start);
+            }
+        });
+        writer.start();
+
+        long[] latencies = new long[1024];
+        int queries = 0;
+        while (writer.isAlive() && queries < latencies.length) {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = mContext.getContentResolver().query(dayUri, null, null, null, null);
+            assertEquals(1, cursor.getCount());
+            cursor.close();
+            latencies[queries++] = SystemClock.elapsedRealtime() - start;
+        }
+        writer.join();
+        assertNull("Error: The ingest failed", ingestError.get());
+        assertTrue("Error: The ingest finished before any query could run", queries > 0);
+
+        Arrays.sort(latencies, 0, queries);
+        long median = latencies[queries / 2];
+        long max = latencies[queries - 1];
+        Log.i(LOG_TAG, queries + " queries during a " + ingestMillis.get() + " ms ingest: median "
+                + median + " ms, max " + max + " ms");
+        assertTrue("Error: A query waited for the ingest to finish",
+                max < ingestMillis.get() / 2 || ingestMillis.get() < 100);
+    }
+
+    private long[] readQueryCacheCounters() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.QueryCacheEntry.CONTENT_URI, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        long[] counters = {
+                cursor.getLong(cursor.getColumnIndex(WeatherContract.QueryCacheEntry.COLUMN_HITS)),
+                cursor.getLong(cursor.getColumnIndex(
+                        WeatherContract.QueryCacheEntry.COLUMN_MISSES))
+        };
+        cursor.close();
+        return counters;
+    }
+
+    private String readShortDesc(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        String shortDesc = cursor.getString(0);
+        cursor.close();
+        return shortDesc;
+    }
+
+    public void testQueryCacheInvalidatesPrecisely() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+        mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        Uri firstDay = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DAY);
+        Uri secondDay = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DAY + 1);
+
+        // The first query of each day goes to the database, the second is answered from the
+        // cache.
+        long[] before = readQueryCacheCounters();
+        readShortDesc(firstDay);
+        readShortDesc(secondDay);
+        readShortDesc(firstDay);
+        readShortDesc(secondDay);
+        long[] after = readQueryCacheCounters();
+        assertEquals("Error: Repeated queries should be cache hits", 2, after[0] - before[0]);
+        assertEquals("Error: First queries should be cache misses", 2, after[1] - before[1]);
+
+        // Changing the first day should only drop the first day.
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        values[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(upsertUri, values);
+
+        before = readQueryCacheCounters();
+        assertEquals("Error: A changed day should not be served from the cache",
+                "Meteors", readShortDesc(firstDay));
+        assertEquals("Asteroids", readShortDesc(secondDay));
+        after = readQueryCacheCounters();
+        assertEquals("Error: The unchanged day should still be cached", 1, after[0] - before[0]);
+        assertEquals("Error: The changed day should have been dropped", 1, after[1] - before[1]);
+    }
+
+    public void testHourlyRangeQueryPages() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long slotMillis = 3 * 60 * 60 * 1000;
+        int slots = 40;
+
+        ContentValues[] values = new ContentValues[slots];
+        for (int i = 0; i < slots; i++) {
+            values[i] = new ContentValues();
+            values[i].put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            values[i].put(HourlyEntry.COLUMN_TIME, TestUtilities.TEST_DATE + i * slotMillis);
+            values[i].put(HourlyEntry.COLUMN_TEMP, 10 + i * 0.5);
+            values[i].put(HourlyEntry.COLUMN_HUMIDITY, 50);
+            values[i].put(HourlyEntry.COLUMN_WIND_SPEED, 2.5);
+            values[i].put(HourlyEntry.COLUMN_WEATHER_ID, 800);
+        }
+        TestUtilities.TestContentObserver hourlyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), false,
+                hourlyObserver);
+        assertEquals(slots,
+                mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, values));
+        hourlyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+
+        // Writing the same slots again replaces them rather than adding rows.
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, values);
+
+        // Page through the first day, three slots at a time.
+        long start = TestUtilities.TEST_DATE;
+        long end = TestUtilities.TEST_DATE + 8 * slotMillis;
+        int seen = 0;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION, start,
+                            end, 3),
+                    new String[]{HourlyEntry.COLUMN_TIME}, null, null, null);
+            assertTrue("Error: A page should hold at most the limit", cursor.getCount() <= 3);
+            if (!cursor.moveToLast()) {
+                cursor.close();
+                break;
+            }
+            seen += cursor.getCount();
+            start = cursor.getLong(0) + 1;
+            cursor.close();
+        }
+        assertEquals("Error: Paging should visit every slot in the range exactly once", 8, seen);
+
+        Cursor cursor = mContext.getContentResolver().query(HourlyEntry.CONTENT_URI, null, null,
+                null, null);
+        assertEquals(slots, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testSyncTimingIsTrimmed() {
+        Uri timingUri = WeatherContract.SyncTimingEntry.CONTENT_URI;
+        mContext.getContentResolver().delete(timingUri, null, null);
+
+        int total = WeatherContract.SyncTimingEntry.MAX_ROWS + 10;
+        ContentValues[] values = new ContentValues[total];
+        for (int i = 0; i < total; i++) {
+            values[i] = new ContentValues();
+            values[i].put(WeatherContract.SyncTimingEntry.COLUMN_SYNC_ID, i);
+            values[i].put(WeatherContract.SyncTimingEntry.COLUMN_STAGE,
+                    WeatherContract.SyncTimingEntry.STAGE_SYNC);
+            values[i].put(WeatherContract.SyncTimingEntry.COLUMN_DURATION, i);
+            values[i].put(WeatherContract.SyncTimingEntry.COLUMN_BYTES, 0);
+            values[i].put(WeatherContract.SyncTimingEntry.COLUMN_OUTCOME, 0);
+        }
+        assertEquals(total, mContext.getContentResolver().bulkInsert(timingUri, values));
+
+        Cursor cursor = mContext.getContentResolver().query(timingUri,
+                new String[]{WeatherContract.SyncTimingEntry.COLUMN_SYNC_ID}, null, null,
+                WeatherContract.SyncTimingEntry._ID + " ASC");
+        assertEquals("Error: The sync timing table should keep only the newest rows",
+                WeatherContract.SyncTimingEntry.MAX_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The oldest rows should be the ones dropped", 10, cursor.getLong(0));
+        cursor.close();
+
+        mContext.getContentResolver().delete(timingUri, null, null);
+    }
 }
@@ -28,14 +28,30 @@ import android.test.AndroidTestCase;
 public class TestUriMatcher extends AndroidTestCase {
     private static final String LOCATION_QUERY = "London, UK";
     private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    private static final int TEST_DAY = 2457012;  // December 20th, 2014, as a Julian day
     private static final long TEST_LOCATION_ID = 10L;
 
     // content://com.example.android.sunshine.app/weather"
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
-    private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DAY);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 86400000L, 8);
+    // content://com.example.android.sunshine.app/sync_timing"
+    private static final Uri TEST_SYNC_TIMING_DIR = WeatherContract.SyncTimingEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/query_cache"
+    private static final Uri TEST_QUERY_CACHE_DIR = WeatherContract.QueryCacheEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/migration"
+    private static final Uri TEST_MIGRATION_DIR = WeatherContract.MigrationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/archive"
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    private static final Uri TEST_WEATHER_HISTORY_DIR = WeatherContract.WeatherEntry.buildWeatherHistory(LOCATION_QUERY, 0, TEST_DAY);
+    // content://com.example.android.sunshine.app/aggregate/London, UK/30"
+    private static final Uri TEST_AGGREGATE_WITH_LOCATION_AND_WINDOW = WeatherContract.AggregateEntry.buildAggregateLocationWithWindow(LOCATION_QUERY, WeatherContract.AggregateEntry.WINDOW_MONTH);
+    private static final Uri TEST_WEATHER_ROLLUP_DIR = WeatherContract.WeatherEntry.buildWeatherRollup(LOCATION_QUERY, WeatherContract.RollupEntry.PERIOD_WEEK);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +69,24 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The SYNC TIMING URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_TIMING_DIR), WeatherProvider.SYNC_TIMING);
+        assertEquals("Error: The QUERY CACHE URI was matched incorrectly.",
+                testMatcher.match(TEST_QUERY_CACHE_DIR), WeatherProvider.QUERY_CACHE);
+        assertEquals("Error: The MIGRATION URI was matched incorrectly.",
+                testMatcher.match(TEST_MIGRATION_DIR), WeatherProvider.MIGRATION);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The WEATHER HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_HISTORY_DIR), WeatherProvider.WEATHER_HISTORY);
+        assertEquals("Error: The WEATHER ROLLUP URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_ROLLUP_DIR), WeatherProvider.WEATHER_ROLLUP);
+        assertEquals("Error: The AGGREGATE WITH LOCATION AND WINDOW URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATE_WITH_LOCATION_AND_WINDOW),
+                WeatherProvider.AGGREGATE_WITH_LOCATION_AND_WINDOW);
     }
 }
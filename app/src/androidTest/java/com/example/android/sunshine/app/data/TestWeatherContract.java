@@ -42,4 +42,23 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testJulianDays() {
+        long midnight = WeatherContract.getDateMillis(TestUtilities.TEST_DAY);
+        assertEquals(TestUtilities.TEST_DAY, WeatherContract.getJulianDay(midnight));
+        assertEquals("Error: Any time in a day should give that day",
+                TestUtilities.TEST_DAY, WeatherContract.getJulianDay(midnight + 23 * 3600000L));
+        assertEquals(TestUtilities.TEST_DAY + 1,
+                WeatherContract.getJulianDay(WeatherContract.getDateMillis(
+                        TestUtilities.TEST_DAY + 1)));
+
+        Uri dayUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                TEST_WEATHER_LOCATION, TestUtilities.TEST_DAY);
+        assertEquals(TestUtilities.TEST_DAY, WeatherContract.WeatherEntry.getDateFromUri(dayUri));
+        // Widgets and notifications may still hold a Uri from when dates were milliseconds.
+        Uri legacyUri = WeatherContract.WeatherEntry.buildWeatherLocation(TEST_WEATHER_LOCATION)
+                .buildUpon().appendPath(Long.toString(midnight)).build();
+        assertEquals(TestUtilities.TEST_DAY,
+                WeatherContract.WeatherEntry.getDateFromUri(legacyUri));
+    }
 }
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A tiny HTTP server on the loopback interface that answers like the OpenWeatherMap daily
+    forecast API.  It serves either a recorded response or a synthetic forecast, and can be told
+    to be slow, to fail every so often, or to pad its responses, so the sync code can be tested
+    and benchmarked without the network or the API quota.  Point an OpenWeatherMapSource at
+    getBaseUrl() to use it.
+ */
+public class StandInWeatherServer {
+
+    public static final String LOG_TAG = StandInWeatherServer.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily";
+    private static final String HOURLY_FORECAST_PATH = "/data/2.5/forecast";
+    private static final int HOURLY_SLOTS = 40;
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mConnectionPool = Executors.newCachedThreadPool();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    private volatile byte[] mRecordedPayload;
+    private volatile int mSyntheticSeed;
+    private volatile long mLatencyMillis;
+    private volatile int mFailureEvery;
+    private volatile int mFailureCode = HttpURLConnection.HTTP_UNAVAILABLE;
+    private volatile int mPaddingBytes;
+    private volatile boolean mGzip = true;
+
+    public StandInWeatherServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    public void start() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnectionPool.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // The server socket was closed.
+                    }
+                }
+            }
+        }, LOG_TAG).start();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+        mConnectionPool.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + FORECAST_PATH + "?";
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    // Serve this body to every request instead of a synthetic forecast.
+    public void setRecordedPayload(byte[] payload) {
+        mRecordedPayload = payload;
+    }
+
+    // Changing the seed changes every synthetic forecast, as if the weather moved.
+    public void setSyntheticSeed(int seed) {
+        mSyntheticSeed = seed;
+    }
+
+    // How long to wait before answering each request.
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    // Answer every nth request with the status code instead of a forecast.  0 never fails.
+    public void setFailureEvery(int n, int statusCode) {
+        mFailureEvery = n;
+        mFailureCode = statusCode;
+    }
+
+    // Trailing whitespace added after the JSON, to make responses as big as we like.
+    public void setPaddingBytes(int paddingBytes) {
+        mPaddingBytes = paddingBytes;
+    }
+
+    // Whether to gzip the body when the client accepts it.
+    public void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            boolean acceptsGzip = false;
+            String ifNoneMatch = null;
+            String header;
+            while ((header = in.readLine()) != null && header.length() > 0) {
+                String lower = header.toLowerCase(Locale.US);
+                if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) {
+                    acceptsGzip = true;
+                } else if (lower.startsWith("if-none-match:")) {
+                    ifNoneMatch = header.substring(header.indexOf(':') + 1).trim();
+                }
+            }
+
+            int request = mRequestCount.incrementAndGet();
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            OutputStream out = socket.getOutputStream();
+            if (mFailureEvery > 0 && request % mFailureEvery == 0) {
+                writeResponse(out, mFailureCode, null, new byte[0], false);
+                return;
+            }
+
+            Uri uri = Uri.parse("http://localhost" + requestLine.split(" ")[1]);
+            byte[] body;
+            if (mRecordedPayload != null) {
+                body = mRecordedPayload;
+            } else if (HOURLY_FORECAST_PATH.equals(uri.getPath())) {
+                body = buildHourlyForecast(uri);
+            } else {
+                body = buildForecast(uri);
+            }
+            if (mPaddingBytes > 0) {
+                byte[] padded = new byte[body.length + mPaddingBytes];
+                System.arraycopy(body, 0, padded, 0, body.length);
+                for (int i = body.length; i < padded.length; i++) {
+                    padded[i] = ' ';
+                }
+                body = padded;
+            }
+
+            String eTag = "\"" + SyncValidatorStore.toHex(
+                    SyncValidatorStore.newDigest().digest(body)) + "\"";
+            if (eTag.equals(ifNoneMatch)) {
+                writeResponse(out, HttpURLConnection.HTTP_NOT_MODIFIED, eTag, new byte[0], false);
+            } else {
+                writeResponse(out, HttpURLConnection.HTTP_OK, eTag, body, acceptsGzip && mGzip);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error serving request", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Done with it.
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out, int code, String eTag, byte[] body,
+                                      boolean gzip) throws IOException {
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+            gzipOut.write(body);
+            gzipOut.close();
+            body = compressed.toByteArray();
+        }
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(code).append(" Stand-in\r\n")
+                .append("Content-Type: application/json; charset=utf-8\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n")
+                .append("Connection: close\r\n");
+        if (eTag != null) {
+            head.append("ETag: ").append(eTag).append("\r\n");
+        }
+        if (gzip) {
+            head.append("Content-Encoding: gzip\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("UTF-8"));
+        out.write(body);
+        out.flush();
+    }
+
+    /*
+        Builds an OWM style forecast for the request.  The same query and seed always give the
+        same bytes, so validators and body hashes behave as they would against the real API.
+     */
+    private byte[] buildForecast(Uri uri) throws IOException {
+        String query = uri.getQueryParameter("q");
+        String lat = uri.getQueryParameter("lat");
+        String lon = uri.getQueryParameter("lon");
+        String name = query != null ? query : lat + "," + lon;
+        int days = 14;
+        String cnt = uri.getQueryParameter("cnt");
+        if (cnt != null) {
+            days = Integer.parseInt(cnt);
+        }
+        int seed = (name.hashCode() * 31) + mSyntheticSeed;
+
+        StringBuilder json = new StringBuilder()
+                .append("{\"city\":{\"id\":").append(Math.abs(name.hashCode()))
+                .append(",\"name\":\"Stand-in ").append(name.replace("\"", ""))
+                .append("\",\"coord\":{\"lon\":").append(lon != null ? lon : "-122.08")
+                .append(",\"lat\":").append(lat != null ? lat : "37.39")
+                .append("},\"country\":\"US\"},\"cod\":\"200\",\"message\":0.01,\"cnt\":")
+                .append(days).append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            int t = Math.abs((seed + i * 7) % 15);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1419033600L + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(15 + t)
+                    .append(",\"min\":").append(10 + t)
+                    .append(",\"max\":").append(20 + t)
+                    .append(",\"night\":").append(11 + t)
+                    .append(",\"eve\":").append(16 + t)
+                    .append(",\"morn\":").append(12 + t)
+                    .append("},\"pressure\":").append(1010 + t)
+                    .append(",\"humidity\":").append(40 + t)
+                    .append(",\"weather\":[{\"id\":800,\"main\":\"Clear\","
+                            + "\"description\":\"sky is clear\",\"icon\":\"01d\"}]")
+                    .append(",\"speed\":").append(1 + t / 10.0)
+                    .append(",\"deg\":").append(t * 24)
+                    .append(",\"clouds\":0}");
+        }
+        json.append("]}");
+        return json.toString().getBytes("UTF-8");
+    }
+
+    /*
+        Builds an OWM style three-hourly forecast: five days of slots, like the real API.
+     */
+    private byte[] buildHourlyForecast(Uri uri) throws IOException {
+        String query = uri.getQueryParameter("q");
+        String lat = uri.getQueryParameter("lat");
+        String lon = uri.getQueryParameter("lon");
+        String name = query != null ? query : lat + "," + lon;
+        int seed = (name.hashCode() * 31) + mSyntheticSeed;
+
+        StringBuilder json = new StringBuilder()
+                .append("{\"cod\":\"200\",\"message\":0.01,\"cnt\":").append(HOURLY_SLOTS)
+                .append(",\"list\":[");
+        for (int i = 0; i < HOURLY_SLOTS; i++) {
+            int t = Math.abs((seed + i * 5) % 15);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1419033600L + i * 10800L)
+                    .append(",\"main\":{\"temp\":").append(10 + t)
+                    .append(",\"temp_min\":").append(9 + t)
+                    .append(",\"temp_max\":").append(11 + t)
+                    .append(",\"pressure\":").append(1010 + t)
+                    .append(",\"humidity\":").append(40 + t)
+                    .append("},\"weather\":[{\"id\":800,\"main\":\"Clear\","
+                            + "\"description\":\"sky is clear\",\"icon\":\"01d\"}]")
+                    .append(",\"clouds\":{\"all\":0}")
+                    .append(",\"wind\":{\"speed\":").append(1 + t / 10.0)
+                    .append(",\"deg\":").append(t * 24).append("}}");
+        }
+        json.append("],\"city\":{\"name\":\"Stand-in ").append(name.replace("\"", ""))
+                .append("\",\"country\":\"US\"}}");
+        return json.toString().getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    public void testOpensAndRecovers() {
+        CircuitBreaker breaker = new CircuitBreaker(mContext,
+                "breaker-" + SystemClock.uptimeMillis());
+        long now = System.currentTimeMillis();
+
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(now);
+            assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState(now));
+        }
+        breaker.recordFailure(now);
+        assertEquals("Error: The breaker should open after " + CircuitBreaker.FAILURE_THRESHOLD
+                + " failures", CircuitBreaker.STATE_OPEN, breaker.getState(now));
+        assertTrue(breaker.getRetryTime() > now);
+        assertEquals("Error: A probe should be allowed after the retry time",
+                CircuitBreaker.STATE_HALF_OPEN, breaker.getState(breaker.getRetryTime()));
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState(now));
+        assertEquals(0, breaker.getRetryTime());
+    }
+
+    public void testBackoffIsJitteredAndCapped() {
+        long first = CircuitBreaker.BACKOFF_BASE_MILLIS;
+        assertEquals(first / 2, CircuitBreaker.computeBackoff(0, 0f));
+        assertEquals(first, CircuitBreaker.computeBackoff(0, 1f));
+        assertEquals(first, CircuitBreaker.computeBackoff(1, 0f));
+        assertEquals(CircuitBreaker.BACKOFF_MAX_MILLIS, CircuitBreaker.computeBackoff(100, 1f));
+    }
+}
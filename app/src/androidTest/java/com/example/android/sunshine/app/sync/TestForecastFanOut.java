@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestForecastFanOut extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final long SINK_TIMEOUT_MILLIS = 100;
+    private static final long WAIT_MILLIS = 3000;
+
+    /*
+        Stands in for a sink stuck in something that doesn't give up when interrupted, like a
+        notification waiting on its art.
+     */
+    static class BlockingSink implements ForecastSink {
+        final AtomicInteger mDeliveries = new AtomicInteger();
+        private final String mStage;
+        private final CountDownLatch mRelease;
+
+        BlockingSink(String stage, CountDownLatch release) {
+            mStage = stage;
+            mRelease = release;
+        }
+
+        @Override
+        public String getStage() {
+            return mStage;
+        }
+
+        @Override
+        public long getTimeoutMillis() {
+            return SINK_TIMEOUT_MILLIS;
+        }
+
+        @Override
+        public void deliver(String locationSetting) {
+            mDeliveries.incrementAndGet();
+            while (true) {
+                try {
+                    mRelease.await();
+                    return;
+                } catch (InterruptedException e) {
+                    // Ignored, like the sinks this stands in for.
+                }
+            }
+        }
+    }
+
+    public void testStuckSinkIsSkippedUntilItReturns() throws Exception {
+        final String stage = "test_blocking_" + SystemClock.uptimeMillis();
+        final long syncId = System.currentTimeMillis();
+        CountDownLatch release = new CountDownLatch(1);
+        final BlockingSink sink = new BlockingSink(stage, release);
+        ForecastFanOut fanOut = new ForecastFanOut(mContext);
+
+        fanOut.dispatch(TEST_LOCATION, syncId, sink);
+        PollingCheck.check("Error: A sink that times out should still be recorded", WAIT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return getOutcome(syncId, stage)
+                                == SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+                    }
+                });
+        assertTrue("Error: A sink ignoring the interrupt should still be running",
+                ForecastFanOut.isInFlight(sink));
+
+        fanOut.dispatch(TEST_LOCATION, syncId + 1, sink);
+        assertEquals("Error: A sink still running should not be run again", 1,
+                sink.mDeliveries.get());
+        assertEquals("Error: A skipped sink should not be recorded", -1,
+                getOutcome(syncId + 1, stage));
+
+        release.countDown();
+        PollingCheck.check("Error: The sink should be free once it returns", WAIT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return !ForecastFanOut.isInFlight(sink);
+                    }
+                });
+        fanOut.dispatch(TEST_LOCATION, syncId + 2, sink);
+        PollingCheck.check("Error: The sink should run again once it is free", WAIT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return getOutcome(syncId + 2, stage)
+                                == SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    }
+                });
+        assertEquals(2, sink.mDeliveries.get());
+    }
+
+    public void testFailedSinkIsRecordedWithTheOthers() throws Exception {
+        final String failingStage = "test_failing_" + SystemClock.uptimeMillis();
+        final String workingStage = "test_working_" + SystemClock.uptimeMillis();
+        final long syncId = System.currentTimeMillis() + 10;
+        CountDownLatch released = new CountDownLatch(0);
+        ForecastSink failing = new BlockingSink(failingStage, released) {
+            @Override
+            public void deliver(String locationSetting) {
+                throw new IllegalStateException("Nothing to show");
+            }
+        };
+        ForecastSink working = new BlockingSink(workingStage, released);
+
+        new ForecastFanOut(mContext).dispatch(TEST_LOCATION, syncId, failing, working);
+        PollingCheck.check("Error: The ledger should be flushed once both sinks are done",
+                WAIT_MILLIS, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return getOutcome(syncId, workingStage) != -1;
+                    }
+                });
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, getOutcome(syncId, workingStage));
+        assertEquals("Error: A sink that threw should be recorded as failed",
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, getOutcome(syncId, failingStage));
+        assertFalse(ForecastFanOut.isInFlight(failing));
+    }
+
+    /*
+        The outcome recorded for the stage in the pass, or -1 if there is none yet.
+     */
+    private int getOutcome(long syncId, String stage) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncTimingEntry.CONTENT_URI,
+                new String[]{WeatherContract.SyncTimingEntry.COLUMN_OUTCOME},
+                WeatherContract.SyncTimingEntry.COLUMN_SYNC_ID + " = ? AND "
+                        + WeatherContract.SyncTimingEntry.COLUMN_STAGE + " = ?",
+                new String[]{Long.toString(syncId), stage},
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
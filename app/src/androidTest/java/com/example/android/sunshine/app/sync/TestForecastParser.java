@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/*
+    Checks the streaming forecast parser against the JSONObject one using recorded
+    OpenWeatherMap responses, and logs how much each of them allocates.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    private static final String RECORDED_FORECAST = "forecast_daily_14.json";
+    private static final String RECORDED_NOT_FOUND = "forecast_not_found.json";
+
+    private static final int BENCHMARK_ITERATIONS = 50;
+
+    private byte[] readRecording(String name) throws IOException {
+        InputStream in = getClass().getResourceAsStream(name);
+        assertNotNull("Error: Missing recorded response " + name, in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    // This is how the sync adapter used to read the response before handing it to JSONObject.
+    private static String readLikeBefore(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        return buffer.toString();
+    }
+
+    public void testStreamMatchesTree() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        byte[] body = readRecording(RECORDED_FORECAST);
+
+        Forecast tree = ForecastParser.parseTree(new String(body, "UTF-8"));
+        Forecast stream = ForecastParser.parseStream(new ByteArrayInputStream(body));
+
+        assertEquals(HttpURLConnection.HTTP_OK, stream.messageCode);
+        assertEquals("Mountain View", stream.cityName);
+        assertEquals(tree.cityName, stream.cityName);
+        assertEquals(tree.cityLatitude, stream.cityLatitude);
+        assertEquals(tree.cityLongitude, stream.cityLongitude);
+        assertEquals(14, stream.dayCount);
+        assertEquals(tree.dayCount, stream.dayCount);
+
+        for (int i = 0; i < stream.dayCount; i++) {
+            Forecast.Day expected = tree.days[i];
+            Forecast.Day actual = stream.days[i];
+            String error = "Error: day " + i + " parsed differently";
+            assertEquals(error, expected.pressure, actual.pressure);
+            assertEquals(error, expected.humidity, actual.humidity);
+            assertEquals(error, expected.windSpeed, actual.windSpeed);
+            assertEquals(error, expected.windDirection, actual.windDirection);
+            assertEquals(error, expected.high, actual.high);
+            assertEquals(error, expected.low, actual.low);
+            assertEquals(error, expected.description, actual.description);
+            assertEquals(error, expected.weatherId, actual.weatherId);
+        }
+    }
+
+    public void testNotFound() throws Exception {
+        Forecast forecast = ForecastParser.parse(
+                new ByteArrayInputStream(readRecording(RECORDED_NOT_FOUND)));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.messageCode);
+        assertEquals(0, forecast.dayCount);
+    }
+
+    public void testMalformedIsJsonException() throws Exception {
+        try {
+            ForecastParser.parse(new ByteArrayInputStream(
+                    "{\"city\":{\"name\":\"North Pole\"},\"list\":[{\"pressure\":true}]}"
+                            .getBytes("UTF-8")));
+            fail("Error: a malformed forecast should be reported as a JSONException");
+        } catch (JSONException expected) {
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs the bytes allocated on this thread per parse for the old
+        String + JSONObject path and for the streaming path.
+     */
+    @SuppressWarnings("deprecation")
+    public void testAllocationBenchmark() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        byte[] body = readRecording(RECORDED_FORECAST);
+
+        // Warm up both paths so class loading doesn't show up in the numbers.
+        ForecastParser.parseTree(readLikeBefore(new ByteArrayInputStream(body)));
+        ForecastParser.parseStream(new ByteArrayInputStream(body));
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                ForecastParser.parseTree(readLikeBefore(new ByteArrayInputStream(body)));
+            }
+            long treeBytes = Debug.getThreadAllocSize() / BENCHMARK_ITERATIONS;
+
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                ForecastParser.parseStream(new ByteArrayInputStream(body));
+            }
+            long streamBytes = Debug.getThreadAllocSize() / BENCHMARK_ITERATIONS;
+
+            Log.i(LOG_TAG, "Payload " + body.length + " bytes. Allocated per parse: before "
+                    + treeBytes + " bytes, streaming " + streamBytes + " bytes");
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Runs the sync fetch path against StandInWeatherServer, so these tests never touch the
+    network and always see the same responses.
+ */
+public class TestStandInSync extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestStandInSync.class.getSimpleName();
+
+    private static final int BENCHMARK_LOCATIONS = 16;
+    private static final long BENCHMARK_LATENCY_MILLIS = 250;
+
+    private StandInWeatherServer mServer;
+    private WeatherSource mSource;
+    private SyncValidatorStore mValidatorStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StandInWeatherServer();
+        mServer.start();
+        mSource = new OpenWeatherMapSource(mServer.getBaseUrl());
+        mValidatorStore = new SyncValidatorStore(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private LocationSyncTask.Result fetch(String location, boolean haveCurrentData) {
+        return new LocationSyncTask(mSource, new SyncHttpClient(), mValidatorStore, location,
+                null, null, haveCurrentData).call();
+    }
+
+    public void testFetchAndNotModified() {
+        String location = "stand-in-" + SystemClock.uptimeMillis();
+        LocationSyncTask.Result result = fetch(location, false);
+        assertEquals(LocationSyncTask.OUTCOME_FETCHED, result.outcome);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+        assertEquals(LocationSyncTask.FORECAST_DAYS, result.forecast.dayCount);
+        assertTrue("Error: The body should have been gzipped",
+                result.wireBytes < result.decodedBytes);
+
+        mValidatorStore.recordIngest(location, result.eTag, result.lastModified,
+                result.contentHash);
+        result = fetch(location, true);
+        assertEquals("Error: The stand-in should have answered with 304",
+                LocationSyncTask.OUTCOME_NOT_MODIFIED, result.outcome);
+
+        // Once the weather moves the new forecast should come through again.
+        mServer.setSyntheticSeed(1);
+        assertEquals(LocationSyncTask.OUTCOME_FETCHED, fetch(location, true).outcome);
+    }
+
+    public void testHourlyFetch() {
+        String location = "stand-in-hourly-" + SystemClock.uptimeMillis();
+        LocationSyncTask task = new LocationSyncTask(mSource, new SyncHttpClient(),
+                mValidatorStore, location, null, null, false, LocationSyncTask.KIND_HOURLY);
+        LocationSyncTask.Result result = task.call();
+        assertEquals(LocationSyncTask.OUTCOME_FETCHED, result.outcome);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+        assertNull(result.forecast);
+        assertEquals(40, result.hourlyForecast.slotCount);
+        assertEquals("Error: Slots should be three hours apart", 3 * 60 * 60 * 1000,
+                result.hourlyForecast.times[1] - result.hourlyForecast.times[0]);
+        assertFalse("Error: Hourly validators should not overwrite the daily ones",
+                location.equals(result.validatorKey));
+    }
+
+    public void testServerErrorIsServerDown() {
+        mServer.setFailureEvery(1, HttpURLConnection.HTTP_UNAVAILABLE);
+        LocationSyncTask.Result result = fetch("stand-in-error", false);
+        assertEquals(LocationSyncTask.OUTCOME_FAILED, result.outcome);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, result.status);
+    }
+
+    public void testOversizedResponseIsRejected() {
+        mServer.setGzip(false);
+        mServer.setPaddingBytes((int) SyncHttpClient.MAX_RESPONSE_BYTES);
+        LocationSyncTask.Result result = fetch("stand-in-oversized", false);
+        assertEquals(LocationSyncTask.OUTCOME_FAILED, result.outcome);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, result.status);
+    }
+
+    /*
+        Not a pass/fail test: logs how long a pass over many slow locations takes one at a time
+        and on the sync adapter's worker pool.
+     */
+    public void testFetchBenchmark() throws Exception {
+        mServer.setLatencyMillis(BENCHMARK_LATENCY_MILLIS);
+        String prefix = "stand-in-bench-" + SystemClock.uptimeMillis() + "-";
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            assertEquals(LocationSyncTask.OUTCOME_FETCHED, fetch(prefix + i, false).outcome);
+        }
+        long serialMillis = SystemClock.elapsedRealtime() - start;
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            CompletionService<LocationSyncTask.Result> completionService =
+                    new ExecutorCompletionService<LocationSyncTask.Result>(pool);
+            start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+                completionService.submit(new LocationSyncTask(mSource, new SyncHttpClient(),
+                        mValidatorStore, prefix + i, null, null, false));
+            }
+            for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+                assertEquals(LocationSyncTask.OUTCOME_FETCHED,
+                        completionService.take().get().outcome);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        long pooledMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(LOG_TAG, BENCHMARK_LOCATIONS + " locations at " + BENCHMARK_LATENCY_MILLIS
+                + "ms each: serial " + serialMillis + "ms, pooled " + pooledMillis + "ms, "
+                + mServer.getRequestCount() + " requests served");
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    public void testBurstIsCoalesced() {
+        String location = "coalesce-" + SystemClock.uptimeMillis();
+        long now = System.currentTimeMillis();
+        int savedBefore = SyncCoalescer.getSavedCount(mContext, SyncCoalescer.TRIGGER_WEAR);
+
+        assertEquals("Error: The first request should sync", SyncCoalescer.DECISION_SYNC,
+                SyncCoalescer.request(mContext, location, SyncCoalescer.TRIGGER_WEAR, now));
+        assertEquals("Error: A request for a queued location should attach to it",
+                SyncCoalescer.DECISION_ATTACHED,
+                SyncCoalescer.request(mContext, location, SyncCoalescer.TRIGGER_WEAR, now));
+
+        SyncCoalescer.onSyncStarted(location);
+        assertEquals("Error: A request for a running location should attach to it",
+                SyncCoalescer.DECISION_ATTACHED,
+                SyncCoalescer.request(mContext, location, SyncCoalescer.TRIGGER_WEAR, now));
+        new SyncStatusStore(mContext).recordResult(location,
+                SunshineSyncAdapter.LOCATION_STATUS_OK, now);
+        SyncCoalescer.onSyncFinished();
+        assertTrue(SyncCoalescer.takeWearWaiting());
+
+        assertEquals("Error: A freshly synced location should be answered from the database",
+                SyncCoalescer.DECISION_FRESH,
+                SyncCoalescer.request(mContext, location, SyncCoalescer.TRIGGER_WEAR, now));
+        assertEquals("Error: Once the window is over the location should sync again",
+                SyncCoalescer.DECISION_SYNC,
+                SyncCoalescer.request(mContext, location, SyncCoalescer.TRIGGER_WEAR,
+                        now + SyncCoalescer.FRESHNESS_WINDOW_MILLIS));
+
+        assertEquals(savedBefore + 3,
+                SyncCoalescer.getSavedCount(mContext, SyncCoalescer.TRIGGER_WEAR));
+        SyncCoalescer.takeWearWaiting();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final float TYPICAL_CHANGE_RATE = 0.3f;
+    private static final int NOON = 12;
+
+    public void testVolatileForecastSyncsMoreOften() {
+        long typical = SyncScheduler.computeSyncInterval(TYPICAL_CHANGE_RATE, HOUR_IN_MILLIS,
+                false);
+        assertEquals(SyncScheduler.BASE_INTERVAL, typical);
+        assertTrue("Error: A volatile forecast should sync more often",
+                SyncScheduler.computeSyncInterval(0.8f, HOUR_IN_MILLIS, false) < typical);
+        assertTrue("Error: A stable forecast should sync less often",
+                SyncScheduler.computeSyncInterval(0f, HOUR_IN_MILLIS, false) > typical);
+    }
+
+    public void testUnreadDataSyncsLessOften() {
+        long read = SyncScheduler.computeSyncInterval(TYPICAL_CHANGE_RATE, HOUR_IN_MILLIS,
+                false);
+        long unread = SyncScheduler.computeSyncInterval(TYPICAL_CHANGE_RATE, Long.MAX_VALUE,
+                false);
+        assertTrue("Error: Data nobody reads should sync less often", unread > read);
+        assertTrue(unread <= SyncScheduler.MAX_INTERVAL);
+    }
+
+    public void testNightWaitsForMorning() {
+        long interval = SyncScheduler.computeSyncInterval(1f, HOUR_IN_MILLIS, true);
+        assertEquals(SyncScheduler.MIN_INTERVAL, interval);
+
+        // At 1am the next sync shouldn't come before 6am, even at the start of its flex window.
+        long period = SyncScheduler.computePeriod(interval, 1);
+        assertTrue("Error: Overnight syncs should wait for the morning",
+                period - interval / 3 >= (SyncScheduler.NIGHT_END_HOUR - 1) * 60 * 60);
+        assertEquals("Error: The morning sync should go back to the interval", interval,
+                SyncScheduler.computePeriod(interval, SyncScheduler.NIGHT_END_HOUR));
+        assertEquals(interval, SyncScheduler.computePeriod(interval, NOON));
+
+        // An interval that already reaches the morning isn't stretched.
+        assertEquals(SyncScheduler.MAX_INTERVAL,
+                SyncScheduler.computePeriod(SyncScheduler.MAX_INTERVAL, 1));
+    }
+}
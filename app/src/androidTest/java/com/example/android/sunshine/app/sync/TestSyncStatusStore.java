@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+public class TestSyncStatusStore extends AndroidTestCase {
+
+    public void testInvalidResponsesAreCountedPerLocation() {
+        SyncStatusStore store = new SyncStatusStore(mContext);
+        String bad = "status-bad-" + SystemClock.uptimeMillis();
+        String good = "status-good-" + SystemClock.uptimeMillis();
+        long now = System.currentTimeMillis();
+
+        store.recordResult(bad, SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, now);
+        store.recordResult(bad, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, now);
+        store.recordResult(bad, SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, now);
+        store.recordResult(good, SunshineSyncAdapter.LOCATION_STATUS_OK, now);
+        assertEquals(2, store.getInvalidResponseCount(bad));
+        assertEquals(3, store.getFailureCount(bad));
+        assertTrue("Error: A location with unusable answers should back off",
+                store.getNextRetryTime(bad) > now);
+        assertEquals("Error: Other locations should not be held back", 0,
+                store.getInvalidResponseCount(good));
+        assertEquals(0, store.getNextRetryTime(good));
+
+        store.recordResult(bad, SunshineSyncAdapter.LOCATION_STATUS_OK, now);
+        assertEquals(0, store.getInvalidResponseCount(bad));
+        assertEquals(0, store.getNextRetryTime(bad));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestWearOutbox extends AndroidTestCase {
+
+    private static final int TEST_DAY = 2457012;  // December 20th, 2014, as a Julian day
+
+    private void clearOutbox() {
+        mContext.getSharedPreferences(WearOutbox.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .clear().commit();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearOutbox();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearOutbox();
+        super.tearDown();
+    }
+
+    public void testDeliveredForecastDropsOlderPending() {
+        WearOutbox outbox = new WearOutbox(mContext);
+        assertTrue(outbox.enqueue("75", "65", 800, TEST_DAY));
+        outbox.markDelivered("75", "65", 800, TEST_DAY, false);
+        assertFalse(outbox.hasPending());
+
+        // A forecast that couldn't be delivered, and then the weather goes back to what the
+        // watch already shows.
+        assertTrue(outbox.enqueue("80", "60", 500, TEST_DAY));
+        assertTrue(outbox.hasPending());
+        assertFalse("Error: The watch already shows this forecast",
+                outbox.enqueue("75", "65", 800, TEST_DAY));
+        assertFalse("Error: The undelivered forecast is out of date and should be dropped",
+                outbox.hasPending());
+    }
+}
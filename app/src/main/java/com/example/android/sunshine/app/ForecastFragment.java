@@ -33,6 +33,7 @@ import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateFormat;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -48,6 +49,8 @@ import android.widget.TextView;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.Date;
+
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
@@ -58,7 +61,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private boolean mUseTodayLayout, mAutoSelectView;
     private int mChoiceMode;
     private boolean mHoldForTransition;
-    private long mInitialSelectedDate = -1;
+    private int mInitialSelectedDate = -1;
 
     private static final String SELECTED_KEY = "selected_position";
 
@@ -187,7 +190,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // use it to populate the RecyclerView it's attached to.
         mForecastAdapter = new ForecastAdapter(getActivity(), new ForecastAdapter.ForecastAdapterOnClickHandler() {
             @Override
-            public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+            public void onClick(int date, ForecastAdapter.ForecastAdapterViewHolder vh) {
                 String locationSetting = Utility.getPreferredLocation(getActivity());
                 ((Callback) getActivity())
                         .onItemSelected(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
@@ -314,7 +317,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         String locationSetting = Utility.getPreferredLocation(getActivity());
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+                locationSetting, WeatherContract.getJulianDay(System.currentTimeMillis()));
 
         return new CursorLoader(getActivity(),
                 weatherForLocationUri,
@@ -346,7 +349,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                             int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
                             for ( int i = 0; i < count; i++ ) {
                                 data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
+                                if ( data.getInt(dateColumn) == mInitialSelectedDate ) {
                                     position = i;
                                     break;
                                 }
@@ -394,7 +397,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         }
     }
 
-    public void setInitialSelectedDate(long initialSelectedDate) {
+    public void setInitialSelectedDate(int initialSelectedDate) {
         mInitialSelectedDate = initialSelectedDate;
     }
 
@@ -411,6 +414,14 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                 @SunshineSyncAdapter.LocationStatus int location = Utility.getLocationStatus(getActivity());
                 switch (location) {
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+                        // Rather than trying again now, tell the user when we will.
+                        long retryTime = Utility.getServerRetryTime(getActivity());
+                        if (retryTime > System.currentTimeMillis()) {
+                            tv.setText(getString(R.string.empty_forecast_list_server_down_retry,
+                                    DateFormat.getTimeFormat(getActivity())
+                                            .format(new Date(retryTime))));
+                            return;
+                        }
                         message = R.string.empty_forecast_list_server_down;
                         break;
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
@@ -35,6 +35,9 @@ import android.view.View;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncCoalescer;
+import com.example.android.sunshine.app.sync.SyncScheduler;
+import com.example.android.sunshine.app.sync.WearOutbox;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -156,6 +159,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     @Override
     protected void onResume() {
         super.onResume();
+        SyncScheduler.recordRead(this, SyncScheduler.READER_APP);
         String location = Utility.getPreferredLocation( this );
         // update the location in our second pane using the fragment manager
             if (location != null && !location.equals(mLocation)) {
@@ -232,6 +236,8 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     @Override
     public void onConnected(@Nullable Bundle bundle) {
         Wearable.DataApi.addListener(mGoogleApiClient, this);
+        // Retry whatever a sync couldn't get to the watch.
+        new WearOutbox(this).flush(mGoogleApiClient);
     }
 
     @Override
@@ -245,7 +251,8 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             if (event.getType() == DataEvent.TYPE_CHANGED) {
                 DataItem item = event.getDataItem();
                 if (item.getUri().getPath().compareTo(WEATHER_PATH) == 0) {
-                    SunshineSyncAdapter.syncImmediately(this);
+                    SyncScheduler.recordRead(this, SyncScheduler.READER_WEAR);
+                    SunshineSyncAdapter.syncImmediately(this, SyncCoalescer.TRIGGER_WEAR);
                 }
             }
         }
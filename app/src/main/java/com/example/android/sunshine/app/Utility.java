@@ -20,8 +20,9 @@ import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
-import android.text.format.Time;
 
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.CircuitBreaker;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
@@ -90,24 +91,20 @@ public class Utility {
 
     /**
      * Helper method to convert the database representation of the date into something to display
-     * to users.  As classy and polished a user experience as "20140102" is, we can do better.
+     * to users.  As classy and polished a user experience as "2457313" is, we can do better.
      *
      * @param context Context to use for resource localization
-     * @param dateInMillis The date in milliseconds
+     * @param julianDay The date as a Julian day, as it is stored
      * @return a user-friendly representation of the date.
      */
-    public static String getFriendlyDayString(Context context, long dateInMillis, boolean displayLongToday) {
+    public static String getFriendlyDayString(Context context, int julianDay, boolean displayLongToday) {
         // The day string for forecast uses the following logic:
         // For today: "Today, June 8"
         // For tomorrow:  "Tomorrow"
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
 
-        Time time = new Time();
-        time.setToNow();
-        long currentTime = System.currentTimeMillis();
-        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
-        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+        int currentJulianDay = WeatherContract.getJulianDay(System.currentTimeMillis());
 
         // If the date we're building the String for is today's date, the format
         // is "Today, June 24"
@@ -117,33 +114,33 @@ public class Utility {
             return String.format(context.getString(
                     formatId,
                     today,
-                    getFormattedMonthDay(context, dateInMillis)));
+                    getFormattedMonthDay(context, julianDay)));
         } else if ( julianDay < currentJulianDay + 7 ) {
             // If the input date is less than a week in the future, just return the day name.
-            return getDayName(context, dateInMillis);
+            return getDayName(context, julianDay);
         } else {
             // Otherwise, use the form "Mon Jun 3"
             SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-            return shortenedDateFormat.format(dateInMillis);
+            return shortenedDateFormat.format(WeatherContract.getDateMillis(julianDay));
         }
     }
 
     /**
      * Helper method to convert the database representation of the date into something to display
-     * to users.  As classy and polished a user experience as "20140102" is, we can do better.
+     * to users.  As classy and polished a user experience as "2457313" is, we can do better.
      *
      * @param context Context to use for resource localization
-     * @param dateInMillis The date in milliseconds
+     * @param julianDay The date as a Julian day, as it is stored
      * @return a user-friendly representation of the date.
      */
-    public static String getFullFriendlyDayString(Context context, long dateInMillis) {
+    public static String getFullFriendlyDayString(Context context, int julianDay) {
 
-        String day = getDayName(context, dateInMillis);
+        String day = getDayName(context, julianDay);
         int formatId = R.string.format_full_friendly_date;
         return String.format(context.getString(
                 formatId,
                 day,
-                getFormattedMonthDay(context, dateInMillis)));
+                getFormattedMonthDay(context, julianDay)));
     }
 
     /**
@@ -151,43 +148,34 @@ public class Utility {
      * E.g "today", "tomorrow", "wednesday".
      *
      * @param context Context to use for resource localization
-     * @param dateInMillis The date in milliseconds
+     * @param julianDay The date as a Julian day, as it is stored
      * @return
      */
-    public static String getDayName(Context context, long dateInMillis) {
+    public static String getDayName(Context context, int julianDay) {
         // If the date is today, return the localized version of "Today" instead of the actual
         // day name.
 
-        Time t = new Time();
-        t.setToNow();
-        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
-        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        int currentJulianDay = WeatherContract.getJulianDay(System.currentTimeMillis());
         if (julianDay == currentJulianDay) {
             return context.getString(R.string.today);
         } else if ( julianDay == currentJulianDay +1 ) {
             return context.getString(R.string.tomorrow);
         } else {
-            Time time = new Time();
-            time.setToNow();
             // Otherwise, the format is just the day of the week (e.g "Wednesday".
             SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-            return dayFormat.format(dateInMillis);
+            return dayFormat.format(WeatherContract.getDateMillis(julianDay));
         }
     }
 
     /**
      * Converts db date format to the format "Month day", e.g "June 24".
      * @param context Context to use for resource localization
-     * @param dateInMillis The db formatted date string, expected to be of the form specified
-     *                in Utility.DATE_FORMAT
+     * @param julianDay The date as a Julian day, as it is stored
      * @return The day in the form of a string formatted "December 6"
      */
-    public static String getFormattedMonthDay(Context context, long dateInMillis ) {
-        Time time = new Time();
-        time.setToNow();
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
+    public static String getFormattedMonthDay(Context context, int julianDay) {
         SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
-        String monthDayString = monthDayFormat.format(dateInMillis);
+        String monthDayString = monthDayFormat.format(WeatherContract.getDateMillis(julianDay));
         return monthDayString;
     }
 
@@ -589,6 +577,18 @@ public class Utility {
         return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 
+    /**
+     * @return when the sync adapter will next try the weather server, if it is backing off
+     * after an outage, or 0 if it isn't.
+     */
+    static public long getServerRetryTime(Context c) {
+        CircuitBreaker circuitBreaker = SunshineSyncAdapter.getCircuitBreaker(c);
+        if (circuitBreaker.getState(System.currentTimeMillis()) != CircuitBreaker.STATE_OPEN) {
+            return 0;
+        }
+        return circuitBreaker.getRetryTime();
+    }
+
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      * @param c Context used to get the SharedPreferences
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Manages the archive of past weather, a database of its own next to weather.db.
+ */
+public class ArchiveDbHelper extends SQLiteOpenHelper {
+
+    // If you change the database schema, you must increment the database version.
+    private static final int DATABASE_VERSION = 3;
+
+    static final String DATABASE_NAME = "weather_archive.db";
+
+    public ArchiveDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Like weather.db, so reading history doesn't wait for the archive being written.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_DAILY_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                ArchiveEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                // Archiving the same day again replaces it.  The location comes first, so the
+                // index behind the constraint also serves a location's history by date.
+                " UNIQUE (" + ArchiveEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_ROLLUP_TABLE = "CREATE TABLE " + RollupEntry.TABLE_NAME + " (" +
+                RollupEntry._ID + " INTEGER PRIMARY KEY," +
+                RollupEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                RollupEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                RollupEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_SUM_MIN_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_SUM_MAX_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_SUM_HUMIDITY + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_SUM_PRESSURE + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_SUM_WIND_SPEED + " REAL NOT NULL, " +
+
+                " UNIQUE (" + RollupEntry.COLUMN_LOCATION_SETTING + ", " +
+                RollupEntry.COLUMN_PERIOD + ", " +
+                RollupEntry.COLUMN_START_DATE + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_DAILY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ROLLUP_TABLE);
+        createAggregateTable(sqLiteDatabase);
+    }
+
+    private static void createAggregateTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_AGGREGATE_TABLE = "CREATE TABLE " + AggregateEntry.TABLE_NAME + " (" +
+                AggregateEntry._ID + " INTEGER PRIMARY KEY," +
+                AggregateEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                AggregateEntry.COLUMN_WINDOW + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_END_DATE + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+
+                AggregateEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_VARIANCE_TEMP + " REAL NOT NULL, " +
+
+                AggregateEntry.COLUMN_MIN_HUMIDITY + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MAX_HUMIDITY + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_HUMIDITY + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_VARIANCE_HUMIDITY + " REAL NOT NULL, " +
+
+                AggregateEntry.COLUMN_MIN_PRESSURE + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MAX_PRESSURE + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_PRESSURE + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_VARIANCE_PRESSURE + " REAL NOT NULL, " +
+
+                AggregateEntry.COLUMN_MIN_WIND_SPEED + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MAX_WIND_SPEED + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_WIND_SPEED + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_VARIANCE_WIND_SPEED + " REAL NOT NULL, " +
+
+                // One row per location and window, which the index behind the constraint finds.
+                " UNIQUE (" + AggregateEntry.COLUMN_LOCATION_SETTING + ", " +
+                AggregateEntry.COLUMN_WINDOW + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_AGGREGATE_TABLE);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Unlike weather.db, the archive can't be synced again, so each version only adds to
+        // the one before.  The aggregates fill in the next time the sync archives.
+        if (oldVersion < 2) {
+            createAggregateTable(sqLiteDatabase);
+        }
+        if (oldVersion < 3) {
+            // Dates become Julian days, as in weather.db.  There are a few months of days and
+            // a row per week or month before that, so this doesn't take long.
+            sqLiteDatabase.execSQL("UPDATE " + ArchiveEntry.TABLE_NAME + " SET " +
+                    WeatherEntry.COLUMN_DATE + " = " +
+                    WeatherDbHelper.millisToJulianDay(WeatherEntry.COLUMN_DATE));
+            sqLiteDatabase.execSQL("UPDATE " + RollupEntry.TABLE_NAME + " SET " +
+                    RollupEntry.COLUMN_START_DATE + " = " +
+                    WeatherDbHelper.millisToJulianDay(RollupEntry.COLUMN_START_DATE));
+            sqLiteDatabase.execSQL("UPDATE " + AggregateEntry.TABLE_NAME + " SET " +
+                    AggregateEntry.COLUMN_END_DATE + " = " +
+                    WeatherDbHelper.millisToJulianDay(AggregateEntry.COLUMN_END_DATE));
+        }
+    }
+}
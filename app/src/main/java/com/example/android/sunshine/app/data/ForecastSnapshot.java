@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A file per location with its coming days, in the handful of values the widgets, Muzei, the
+ * notification and the watch show, so they can read them without the provider or SQLite.  The
+ * provider deletes it whenever the location's days change, and drops them all when it can't
+ * tell whose days changed.  The sync writes it again once it has stored the location's
+ * forecast, or on a pass that has nothing new to store if it is missing or of an older
+ * version.
+ *
+ * The layout is fixed, so a reader maps the file and reads the values where they are: a
+ * header of magic, version, time written, day count and record size, then a record per day of
+ * Julian day, weather id, high, low and description, oldest first.  A new file is written next to
+ * the old one and renamed over it, which is atomic, so a reader sees one or the other and never
+ * half of each.  A reader that doesn't know the version, or can't read the file at all, goes
+ * to the provider instead.
+ */
+public class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    // The columns a location's days are read in with for rewrite, in this order.
+    public static final String[] COLUMNS = SummaryCache.COLUMNS;
+
+    static final int MAGIC = 0x53554e53; // "SUNS"
+    // 2 made the dates Julian days, as in the database.
+    static final int VERSION = 2;
+
+    static final int HEADER_BYTES = 24;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_WRITTEN = 8;
+    private static final int HEADER_DAY_COUNT = 16;
+    private static final int HEADER_RECORD_BYTES = 20;
+
+    static final int RECORD_BYTES = 64;
+    private static final int RECORD_DATE = 0;
+    private static final int RECORD_WEATHER_ID = 4;
+    private static final int RECORD_MAX_TEMP = 8;
+    private static final int RECORD_MIN_TEMP = 16;
+    private static final int RECORD_DESC_LENGTH = 24;
+    private static final int RECORD_DESC = 28;
+    // Descriptions are cut to this many bytes of UTF-8, which is more than OWM ever sends.
+    static final int MAX_DESC_BYTES = RECORD_BYTES - RECORD_DESC;
+
+    private static final String DIRECTORY = "forecast_snapshots";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Bumped by every delete, so days read before a write can't be written after it.
+    private static long sGeneration;
+
+    private ForecastSnapshot() {
+    }
+
+    static File getFile(Context context, String locationSetting) {
+        // Encoded, so any location setting makes a plain file name.
+        return new File(new File(context.getFilesDir(), DIRECTORY),
+                "forecast_" + Uri.encode(locationSetting));
+    }
+
+    public static synchronized long getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Replaces the location's snapshot with the days of the cursor, or deletes it if there are
+     * none.  If the new one can't be written the old one is deleted too, since it no longer
+     * matches the database.  If a snapshot was deleted since the days were read, they may be
+     * out of date, so nothing is written.
+     *
+     * @param days rows in the columns of COLUMNS, oldest first
+     * @param generation what {@link #getGeneration} said before the days were read
+     */
+    public static void rewrite(Context context, String locationSetting, Cursor days,
+                               long generation) {
+        SummaryCache.Days read = new SummaryCache.Days(days);
+        int count = read.dates.length;
+        synchronized (ForecastSnapshot.class) {
+            if (generation != sGeneration) {
+                return;
+            }
+            if (count == 0) {
+                delete(context, locationSetting);
+                return;
+            }
+            try {
+                write(context, locationSetting, count, read.dates, read.weatherIds,
+                        read.shortDescs, read.maxTemps, read.minTemps);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error writing the forecast snapshot for " + locationSetting, e);
+                delete(context, locationSetting);
+            }
+        }
+    }
+
+    /**
+     * Replaces the location's snapshot with the first count days of the arrays, oldest first.
+     * Writers on different threads take turns, since they share the temporary file.
+     */
+    static synchronized void write(Context context, String locationSetting, int count, int[] dates,
+                             int[] weatherIds, String[] shortDescs, double[] maxTemps,
+                             double[] minTemps) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * RECORD_BYTES);
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+        buffer.putInt(HEADER_VERSION, VERSION);
+        buffer.putLong(HEADER_WRITTEN, System.currentTimeMillis());
+        buffer.putInt(HEADER_DAY_COUNT, count);
+        buffer.putInt(HEADER_RECORD_BYTES, RECORD_BYTES);
+        for (int i = 0; i < count; i++) {
+            int record = HEADER_BYTES + i * RECORD_BYTES;
+            buffer.putInt(record + RECORD_DATE, dates[i]);
+            buffer.putDouble(record + RECORD_MAX_TEMP, maxTemps[i]);
+            buffer.putDouble(record + RECORD_MIN_TEMP, minTemps[i]);
+            buffer.putInt(record + RECORD_WEATHER_ID, weatherIds[i]);
+            byte[] desc = shortDescs[i] != null ? shortDescs[i].getBytes(UTF_8) : new byte[0];
+            int length = Math.min(desc.length, MAX_DESC_BYTES);
+            // Don't cut a character in half.
+            while (length < desc.length && length > 0 && (desc[length] & 0xc0) == 0x80) {
+                length--;
+            }
+            buffer.putInt(record + RECORD_DESC_LENGTH, length);
+            buffer.position(record + RECORD_DESC);
+            buffer.put(desc, 0, length);
+        }
+
+        File file = getFile(context, locationSetting);
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory);
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array());
+            // On disk before the rename, or a crash could leave the new name on an empty file.
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+
+    /**
+     * Deletes the location's snapshot, so readers go to the provider rather than read one the
+     * database has moved on from.
+     */
+    public static synchronized void delete(Context context, String locationSetting) {
+        sGeneration++;
+        getFile(context, locationSetting).delete();
+    }
+
+    /**
+     * Deletes every location's snapshot.
+     */
+    static synchronized void deleteAll(Context context) {
+        sGeneration++;
+        File[] files = new File(context.getFilesDir(), DIRECTORY).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return whether the location has a snapshot of this version
+     */
+    public static boolean isCurrent(Context context, String locationSetting) {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(getFile(context, locationSetting));
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        try {
+            return map(in.getChannel()) != null;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Only read from, so nothing is lost.
+            }
+        }
+    }
+
+    /**
+     * @return the file mapped, or null if it isn't a whole snapshot of this version
+     */
+    private static MappedByteBuffer map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES) {
+            return null;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (buffer.getInt(HEADER_MAGIC) != MAGIC
+                || buffer.getInt(HEADER_VERSION) != VERSION
+                || buffer.getInt(HEADER_RECORD_BYTES) != RECORD_BYTES) {
+            return null;
+        }
+        int count = buffer.getInt(HEADER_DAY_COUNT);
+        if (count < 0 || size < HEADER_BYTES + (long) count * RECORD_BYTES) {
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * @param date a Julian day
+     * @return the first day of the location from that one on, or null if there is no
+     * snapshot, it is of another version, or it has no such day
+     */
+    static WeatherSummary read(Context context, String locationSetting, int date) {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(getFile(context, locationSetting));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            MappedByteBuffer buffer = map(in.getChannel());
+            if (buffer == null) {
+                return null;
+            }
+            int count = buffer.getInt(HEADER_DAY_COUNT);
+            for (int i = 0; i < count; i++) {
+                int record = HEADER_BYTES + i * RECORD_BYTES;
+                if (buffer.getInt(record + RECORD_DATE) < date) {
+                    continue;
+                }
+                byte[] desc = new byte[Math.min(Math.max(
+                        buffer.getInt(record + RECORD_DESC_LENGTH), 0), MAX_DESC_BYTES)];
+                buffer.position(record + RECORD_DESC);
+                buffer.get(desc);
+                return new WeatherSummary(buffer.getInt(record + RECORD_DATE),
+                        buffer.getInt(record + RECORD_WEATHER_ID),
+                        new String(desc, UTF_8),
+                        buffer.getDouble(record + RECORD_MAX_TEMP),
+                        buffer.getDouble(record + RECORD_MIN_TEMP));
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Only read from, so nothing is lost.
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Bundle;
+
+/**
+ * Hourly slots for one location, on their way into the hourly table through
+ * {@link WeatherContract.HourlyEntry#METHOD_INGEST}, packed into one primitive array per column.
+ * Only the first rowCount entries of each column are rows.
+ */
+public class HourlyBatch {
+    private static final String KEY_LOCATION_ID = "location_id";
+    private static final String KEY_ROW_COUNT = "row_count";
+
+    public final long locationId;
+    public final int rowCount;
+    public final long[] times;
+    public final double[] temperatures;
+    public final int[] humidities;
+    public final double[] windSpeeds;
+    public final int[] weatherIds;
+
+    /**
+     * Wraps columns that are already packed, without copying them.
+     */
+    public HourlyBatch(long locationId, int rowCount, long[] times, double[] temperatures,
+                       int[] humidities, double[] windSpeeds, int[] weatherIds) {
+        this.locationId = locationId;
+        this.rowCount = rowCount;
+        this.times = times;
+        this.temperatures = temperatures;
+        this.humidities = humidities;
+        this.windSpeeds = windSpeeds;
+        this.weatherIds = weatherIds;
+    }
+
+    /**
+     * @return the batch as provider method extras.  The arrays are shared, not copied.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_LOCATION_ID, locationId);
+        bundle.putInt(KEY_ROW_COUNT, rowCount);
+        bundle.putLongArray(WeatherContract.HourlyEntry.COLUMN_TIME, times);
+        bundle.putDoubleArray(WeatherContract.HourlyEntry.COLUMN_TEMP, temperatures);
+        bundle.putIntArray(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, humidities);
+        bundle.putDoubleArray(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, windSpeeds);
+        bundle.putIntArray(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, weatherIds);
+        return bundle;
+    }
+
+    static HourlyBatch fromBundle(Bundle bundle) {
+        return new HourlyBatch(bundle.getLong(KEY_LOCATION_ID),
+                bundle.getInt(KEY_ROW_COUNT),
+                bundle.getLongArray(WeatherContract.HourlyEntry.COLUMN_TIME),
+                bundle.getDoubleArray(WeatherContract.HourlyEntry.COLUMN_TEMP),
+                bundle.getIntArray(WeatherContract.HourlyEntry.COLUMN_HUMIDITY),
+                bundle.getDoubleArray(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED),
+                bundle.getIntArray(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The row ids of the locations, by location setting, so the upsert the sync makes for every
+ * location it stores doesn't have to read the location table.  A location keeps its id until it
+ * is updated or deleted, and either of those drops every id, since they are rare and the ids
+ * are quick to learn again.  Thread safe.
+ */
+class LocationIdCache {
+    private final Map<String, Long> mIds = new HashMap<String, Long>();
+    // Bumped by every invalidation, so an id read before a write can't be cached after it.
+    private long mGeneration;
+
+    /**
+     * @return the location's row id, or -1 if it isn't cached
+     */
+    synchronized long get(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        return id != null ? id : -1;
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @param generation what {@link #getGeneration} said before the id was read
+     */
+    synchronized void put(String locationSetting, long id, long generation) {
+        if (generation == mGeneration) {
+            mIds.put(locationSetting, id);
+        }
+    }
+
+    synchronized void invalidate() {
+        mGeneration++;
+        mIds.clear();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the weather database schema, from the version before it to its own.
+ *
+ * A step comes in two parts.  The schema change runs inside onUpgrade, while nobody can use the
+ * database, so it has to be quick: creating a table or an index, or adding a column, which
+ * SQLite does without touching the rows.  Anything that has to visit every row, like filling in
+ * a new column, is the backfill, which runs afterwards in the background a chunk at a time, in
+ * short transactions that readers and the sync can get in between.  Until it finishes, readers
+ * must not depend on what it fills in.
+ */
+abstract class Migration {
+    final int version;
+
+    Migration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Changes the schema from version - 1 to version.  Runs inside onUpgrade's transaction.
+     */
+    abstract void migrateSchema(SQLiteDatabase db);
+
+    /**
+     * @return how many rows the backfill has left, or 0 if this step has none
+     */
+    long countBackfill(SQLiteDatabase db) {
+        return 0;
+    }
+
+    /**
+     * Backfills up to limit more rows.  Runs inside a transaction of its own, and must pick up
+     * where the last call left off, including after the process was killed.
+     *
+     * @return how many rows were backfilled, 0 once there are none left
+     */
+    int backfill(SQLiteDatabase db, int limit) {
+        return 0;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A bounded, least recently used cache of query results, for the handful of weather queries the
+ * UI, the widgets, Muzei and the notification make over and over.  Results are copied out of
+ * the database cursor, and every hit gets a fresh cursor over the copy.
+ *
+ * Each entry remembers the location and range of dates it covers, so a write only drops the
+ * entries that could have seen it.  Thread safe.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class QueryCache {
+    // Results bigger than this are served straight from the database.
+    static final int MAX_CACHED_ROWS = 64;
+
+    // Rough per-value costs, in bytes, for keeping the cache within its budget.
+    private static final int OBJECT_OVERHEAD = 16;
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long mBytes;
+    // Bumped by every invalidation, so a result read before a write can't be cached after it.
+    private long mGeneration;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mInvalidations;
+
+    private static class Entry {
+        final String locationSetting;
+        final long startDate;
+        final long endDate;
+        final String[] columns;
+        final List<Object[]> rows;
+        final long bytes;
+
+        Entry(String locationSetting, long startDate, long endDate, String[] columns,
+              List<Object[]> rows, long bytes) {
+            this.locationSetting = locationSetting;
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    QueryCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the key for a query: the uri, with its query parameters in a fixed order, and
+     * everything else that shapes the result.
+     */
+    static String buildKey(Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.getPath());
+        List<String> parameters = new ArrayList<String>(uri.getQueryParameterNames());
+        Collections.sort(parameters);
+        for (int i = 0; i < parameters.size(); i++) {
+            String parameter = parameters.get(i);
+            key.append(i == 0 ? '?' : '&')
+                    .append(parameter).append('=').append(uri.getQueryParameter(parameter));
+        }
+        key.append('|').append(projection != null ? Arrays.toString(projection) : "*")
+                .append('|').append(selection)
+                .append('|').append(selectionArgs != null ? Arrays.toString(selectionArgs) : "")
+                .append('|').append(sortOrder);
+        return key.toString();
+    }
+
+    /**
+     * @return a cursor over the cached result, or null if it isn't cached
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return toCursor(entry.columns, entry.rows);
+    }
+
+    private static Cursor toCursor(String[] columns, List<Object[]> rows) {
+        MatrixCursor cursor = new MatrixCursor(columns, rows.size());
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies a query result into the cache and closes it.  A result that is too big is handed
+     * back as it is, and one that a write may have overtaken since the query started is not
+     * kept.
+     *
+     * @param generation what {@link #getGeneration} said before the query ran
+     * @param startDate the first date the result can hold
+     * @param endDate the last date the result can hold
+     * @return a cursor over the same result
+     */
+    Cursor put(String key, long generation, String locationSetting, long startDate,
+               long endDate, Cursor cursor) {
+        if (cursor == null || cursor.getCount() > MAX_CACHED_ROWS) {
+            return cursor;
+        }
+        String[] columns = cursor.getColumnNames();
+        List<Object[]> rows = new ArrayList<Object[]>(cursor.getCount());
+        long bytes = ENTRY_OVERHEAD + key.length() * 2;
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        bytes += ((String) row[i]).length() * 2;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        bytes += ((byte[]) row[i]).length;
+                        break;
+                    default:
+                        row[i] = null;
+                        break;
+                }
+                bytes += OBJECT_OVERHEAD;
+            }
+            rows.add(row);
+        }
+        cursor.close();
+
+        Entry entry = new Entry(locationSetting, startDate, endDate, columns, rows, bytes);
+        synchronized (this) {
+            if (generation == mGeneration && bytes <= mMaxBytes / 4) {
+                Entry replaced = mEntries.put(key, entry);
+                if (replaced != null) {
+                    mBytes -= replaced.bytes;
+                }
+                mBytes += bytes;
+                trim();
+            }
+        }
+        return toCursor(columns, rows);
+    }
+
+    private void trim() {
+        Iterator<Entry> eldest = mEntries.values().iterator();
+        while (mBytes > mMaxBytes && eldest.hasNext()) {
+            mBytes -= eldest.next().bytes;
+            eldest.remove();
+            mEvictions++;
+        }
+    }
+
+    /**
+     * Drops the entries for the location that cover the date.
+     */
+    synchronized void invalidate(String locationSetting, long date) {
+        invalidate(locationSetting, date, date);
+    }
+
+    /**
+     * Drops every entry for the location.
+     */
+    synchronized void invalidate(String locationSetting) {
+        invalidate(locationSetting, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private void invalidate(String locationSetting, long from, long to) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.locationSetting.equals(locationSetting)
+                    && entry.startDate <= to && from <= entry.endDate) {
+                entries.remove();
+                mBytes -= entry.bytes;
+                mInvalidations++;
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mInvalidations += mEntries.size();
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * @return a single row with the cache's counters, in the columns of
+     * {@link WeatherContract.QueryCacheEntry}
+     */
+    synchronized Cursor getStats() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.QueryCacheEntry.COLUMN_HITS,
+                WeatherContract.QueryCacheEntry.COLUMN_MISSES,
+                WeatherContract.QueryCacheEntry.COLUMN_HIT_RATE,
+                WeatherContract.QueryCacheEntry.COLUMN_ENTRIES,
+                WeatherContract.QueryCacheEntry.COLUMN_BYTES,
+                WeatherContract.QueryCacheEntry.COLUMN_MAX_BYTES,
+                WeatherContract.QueryCacheEntry.COLUMN_EVICTIONS,
+                WeatherContract.QueryCacheEntry.COLUMN_INVALIDATIONS
+        }, 1);
+        long lookups = mHits + mMisses;
+        cursor.addRow(new Object[]{mHits, mMisses,
+                lookups > 0 ? (double) mHits / lookups : 0.0,
+                mEntries.size(), mBytes, mMaxBytes, mEvictions, mInvalidations});
+        return cursor;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.os.Bundle;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshots of the days of the last few locations asked about, in the handful of columns the
+ * widgets, Muzei, the notification and the watch show, for the summary provider method.  A
+ * snapshot is dropped whenever its location's days change, and read in again the next time it
+ * is asked for.  Thread safe.
+ */
+class SummaryCache {
+    // Hardly anyone looks at more than the preferred location and one or two others.
+    static final int MAX_LOCATIONS = 8;
+
+    // The columns a snapshot is read in with, in this order.
+    static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private final Map<String, Days> mLocations =
+            new LinkedHashMap<String, Days>(MAX_LOCATIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Days> eldest) {
+                    return size() > MAX_LOCATIONS;
+                }
+            };
+    // Bumped by every invalidation, so days read before a write can't be kept after it.
+    private long mGeneration;
+
+    /**
+     * The days of one location, oldest first, a column to an array.
+     */
+    static class Days {
+        final int[] dates;
+        final int[] weatherIds;
+        final String[] shortDescs;
+        final double[] maxTemps;
+        final double[] minTemps;
+
+        /**
+         * @param cursor rows in the columns of COLUMNS, oldest first
+         */
+        Days(Cursor cursor) {
+            int count = cursor.getCount();
+            dates = new int[count];
+            weatherIds = new int[count];
+            shortDescs = new String[count];
+            maxTemps = new double[count];
+            minTemps = new double[count];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                dates[i] = cursor.getInt(0);
+                weatherIds[i] = cursor.getInt(1);
+                shortDescs[i] = cursor.getString(2);
+                maxTemps[i] = cursor.getDouble(3);
+                minTemps[i] = cursor.getDouble(4);
+            }
+        }
+
+        /**
+         * @return the first day from the given one on, in the form of the summary method's
+         * result, or null if there is none
+         */
+        Bundle getSummary(int date) {
+            int i = Arrays.binarySearch(dates, date);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            if (i == dates.length) {
+                return null;
+            }
+            Bundle summary = new Bundle();
+            summary.putInt(WeatherContract.WeatherEntry.COLUMN_DATE, dates[i]);
+            summary.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+            summary.putString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, shortDescs[i]);
+            summary.putDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemps[i]);
+            summary.putDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, minTemps[i]);
+            return summary;
+        }
+    }
+
+    /**
+     * @return the location's days, or null if they aren't cached
+     */
+    synchronized Days get(String locationSetting) {
+        return mLocations.get(locationSetting);
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @param generation what {@link #getGeneration} said before the days were read
+     */
+    synchronized void put(String locationSetting, Days days, long generation) {
+        if (generation == mGeneration) {
+            mLocations.put(locationSetting, days);
+        }
+    }
+
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        mLocations.remove(locationSetting);
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mLocations.clear();
+    }
+}
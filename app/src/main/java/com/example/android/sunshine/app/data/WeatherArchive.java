@@ -0,0 +1,519 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The cold tier of the weather store.  Days that have gone by leave the weather table for the
+ * archive's daily table, and after DAILY_RETENTION_DAYS they are folded into weekly and monthly
+ * rollups.  The provider puts the two tiers back together for history queries.  The archive
+ * also keeps the aggregates of each location's last few weeks.
+ */
+class WeatherArchive {
+    // The columns a day is archived with, in both tiers.
+    static final String[] DAY_COLUMNS = {
+            ArchiveEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    static final String[] ROLLUP_COLUMNS = {
+            RollupEntry._ID,
+            RollupEntry.COLUMN_PERIOD,
+            RollupEntry.COLUMN_START_DATE,
+            RollupEntry.COLUMN_DAYS,
+            RollupEntry.COLUMN_MIN_TEMP,
+            RollupEntry.COLUMN_MAX_TEMP,
+            RollupEntry.COLUMN_AVG_MIN_TEMP,
+            RollupEntry.COLUMN_AVG_MAX_TEMP,
+            RollupEntry.COLUMN_AVG_HUMIDITY,
+            RollupEntry.COLUMN_AVG_PRESSURE,
+            RollupEntry.COLUMN_AVG_WIND_SPEED
+    };
+
+    private static final String[] STORED_ROLLUP_COLUMNS = {
+            RollupEntry.COLUMN_START_DATE,
+            RollupEntry.COLUMN_DAYS,
+            RollupEntry.COLUMN_MIN_TEMP,
+            RollupEntry.COLUMN_MAX_TEMP,
+            RollupEntry.COLUMN_SUM_MIN_TEMP,
+            RollupEntry.COLUMN_SUM_MAX_TEMP,
+            RollupEntry.COLUMN_SUM_HUMIDITY,
+            RollupEntry.COLUMN_SUM_PRESSURE,
+            RollupEntry.COLUMN_SUM_WIND_SPEED
+    };
+
+    private static final String[] PERIODS = {RollupEntry.PERIOD_WEEK, RollupEntry.PERIOD_MONTH};
+
+    private static final int[] WINDOWS = {AggregateEntry.WINDOW_WEEK, AggregateEntry.WINDOW_MONTH};
+
+    // The midpoint of a day's low and high, which the temperature's mean and variance are of.
+    private static final String sDayTemp = "(" + WeatherEntry.COLUMN_MIN_TEMP + " + " +
+            WeatherEntry.COLUMN_MAX_TEMP + ") / 2.0";
+
+    // Works out a window of every location, or of one with the selection on the location added,
+    // from the days in it.
+    private static final String sInsertAggregates = "INSERT INTO " + AggregateEntry.TABLE_NAME +
+            " (" + AggregateEntry.COLUMN_LOCATION_SETTING + ", " +
+            AggregateEntry.COLUMN_WINDOW + ", " +
+            AggregateEntry.COLUMN_END_DATE + ", " +
+            AggregateEntry.COLUMN_DAYS + ", " +
+            AggregateEntry.COLUMN_MIN_TEMP + ", " +
+            AggregateEntry.COLUMN_MAX_TEMP + ", " +
+            AggregateEntry.COLUMN_MEAN_TEMP + ", " +
+            AggregateEntry.COLUMN_VARIANCE_TEMP + ", " +
+            AggregateEntry.COLUMN_MIN_HUMIDITY + ", " +
+            AggregateEntry.COLUMN_MAX_HUMIDITY + ", " +
+            AggregateEntry.COLUMN_MEAN_HUMIDITY + ", " +
+            AggregateEntry.COLUMN_VARIANCE_HUMIDITY + ", " +
+            AggregateEntry.COLUMN_MIN_PRESSURE + ", " +
+            AggregateEntry.COLUMN_MAX_PRESSURE + ", " +
+            AggregateEntry.COLUMN_MEAN_PRESSURE + ", " +
+            AggregateEntry.COLUMN_VARIANCE_PRESSURE + ", " +
+            AggregateEntry.COLUMN_MIN_WIND_SPEED + ", " +
+            AggregateEntry.COLUMN_MAX_WIND_SPEED + ", " +
+            AggregateEntry.COLUMN_MEAN_WIND_SPEED + ", " +
+            AggregateEntry.COLUMN_VARIANCE_WIND_SPEED + ")" +
+            " SELECT " + ArchiveEntry.COLUMN_LOCATION_SETTING + ", ?, ?, COUNT(*), " +
+            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            meanAndVariance(sDayTemp) + ", " +
+            minMaxMeanAndVariance(WeatherEntry.COLUMN_HUMIDITY) + ", " +
+            minMaxMeanAndVariance(WeatherEntry.COLUMN_PRESSURE) + ", " +
+            minMaxMeanAndVariance(WeatherEntry.COLUMN_WIND_SPEED) +
+            " FROM " + ArchiveEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_DATE + " >= ? AND " +
+            WeatherEntry.COLUMN_DATE + " < ?";
+
+    //location_setting = ? AND date >= ? AND date < ?
+    private static final String sLocationSettingAndDateRangeSelection =
+            ArchiveEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherEntry.COLUMN_DATE + " < ? ";
+
+    private final ArchiveDbHelper mOpenHelper;
+
+    /**
+     * A week or a month of one location, summed up.  Sums rather than averages are kept, so
+     * that rollups of the same period from different places add up exactly.
+     */
+    static class Rollup {
+        final int startDate;
+        int days;
+        double minTemp = Double.MAX_VALUE;
+        double maxTemp = -Double.MAX_VALUE;
+        double sumMinTemp;
+        double sumMaxTemp;
+        double sumHumidity;
+        double sumPressure;
+        double sumWindSpeed;
+
+        Rollup(int startDate) {
+            this.startDate = startDate;
+        }
+
+        // Takes a day in the columns of DAY_COLUMNS.
+        void addDay(Cursor day) {
+            double dayMin = day.getDouble(day.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP));
+            double dayMax = day.getDouble(day.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+            days++;
+            minTemp = Math.min(minTemp, dayMin);
+            maxTemp = Math.max(maxTemp, dayMax);
+            sumMinTemp += dayMin;
+            sumMaxTemp += dayMax;
+            sumHumidity += day.getDouble(day.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY));
+            sumPressure += day.getDouble(day.getColumnIndex(WeatherEntry.COLUMN_PRESSURE));
+            sumWindSpeed += day.getDouble(day.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED));
+        }
+
+        void add(Rollup other) {
+            days += other.days;
+            minTemp = Math.min(minTemp, other.minTemp);
+            maxTemp = Math.max(maxTemp, other.maxTemp);
+            sumMinTemp += other.sumMinTemp;
+            sumMaxTemp += other.sumMaxTemp;
+            sumHumidity += other.sumHumidity;
+            sumPressure += other.sumPressure;
+            sumWindSpeed += other.sumWindSpeed;
+        }
+
+        // Reads a row in the columns of STORED_ROLLUP_COLUMNS.
+        static Rollup fromStored(Cursor stored) {
+            Rollup rollup = new Rollup(stored.getInt(0));
+            rollup.days = stored.getInt(1);
+            rollup.minTemp = stored.getDouble(2);
+            rollup.maxTemp = stored.getDouble(3);
+            rollup.sumMinTemp = stored.getDouble(4);
+            rollup.sumMaxTemp = stored.getDouble(5);
+            rollup.sumHumidity = stored.getDouble(6);
+            rollup.sumPressure = stored.getDouble(7);
+            rollup.sumWindSpeed = stored.getDouble(8);
+            return rollup;
+        }
+
+        ContentValues toValues(String locationSetting, String period) {
+            ContentValues values = new ContentValues();
+            values.put(RollupEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            values.put(RollupEntry.COLUMN_PERIOD, period);
+            values.put(RollupEntry.COLUMN_START_DATE, startDate);
+            values.put(RollupEntry.COLUMN_DAYS, days);
+            values.put(RollupEntry.COLUMN_MIN_TEMP, minTemp);
+            values.put(RollupEntry.COLUMN_MAX_TEMP, maxTemp);
+            values.put(RollupEntry.COLUMN_SUM_MIN_TEMP, sumMinTemp);
+            values.put(RollupEntry.COLUMN_SUM_MAX_TEMP, sumMaxTemp);
+            values.put(RollupEntry.COLUMN_SUM_HUMIDITY, sumHumidity);
+            values.put(RollupEntry.COLUMN_SUM_PRESSURE, sumPressure);
+            values.put(RollupEntry.COLUMN_SUM_WIND_SPEED, sumWindSpeed);
+            return values;
+        }
+
+        // A row in the columns of ROLLUP_COLUMNS.
+        Object[] toRow(long id, String period) {
+            return new Object[]{id, period, startDate, days, minTemp, maxTemp,
+                    sumMinTemp / days, sumMaxTemp / days, sumHumidity / days,
+                    sumPressure / days, sumWindSpeed / days};
+        }
+    }
+
+    private static String meanAndVariance(String value) {
+        // The variance is the mean of the squares less the square of the mean, which rounding
+        // can take a hair below zero.
+        return "AVG(" + value + "), " +
+                "MAX(0, AVG((" + value + ") * (" + value + ")) - AVG(" + value + ") * AVG(" +
+                value + "))";
+    }
+
+    private static String minMaxMeanAndVariance(String column) {
+        return "MIN(" + column + "), MAX(" + column + "), " + meanAndVariance(column);
+    }
+
+    WeatherArchive(Context context) {
+        mOpenHelper = new ArchiveDbHelper(context);
+    }
+
+    static boolean isPeriod(String period) {
+        return RollupEntry.PERIOD_WEEK.equals(period) || RollupEntry.PERIOD_MONTH.equals(period);
+    }
+
+    /**
+     * @return the first day of the week, a Monday, or of the month the day falls in.  Only a
+     * month needs the calendar, and the Time is only used for that.
+     */
+    static int getPeriodStart(String period, int day, Time time) {
+        if (RollupEntry.PERIOD_WEEK.equals(period)) {
+            // The epoch was a Thursday, three days after a Monday.
+            return day - ((day - Time.EPOCH_JULIAN_DAY + 3) % 7 + 7) % 7;
+        }
+        time.setJulianDay(day);
+        return day - (time.monthDay - 1);
+    }
+
+    /**
+     * Copies days into the archive, in one transaction.  A day that is already there is
+     * replaced, so archiving the same day twice does no harm.
+     *
+     * @param days rows in the columns of DAY_COLUMNS
+     * @return how many days were copied
+     */
+    int store(Cursor days) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            while (days.moveToNext()) {
+                values.clear();
+                DatabaseUtils.cursorRowToContentValues(days, values);
+                if (db.insert(ArchiveEntry.TABLE_NAME, null, values) != -1) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    /**
+     * Folds the days from more than DAILY_RETENTION_DAYS before the cutoff into the rollups,
+     * and drops weekly rollups from more than WEEKLY_RETENTION_DAYS before it, all in one
+     * transaction.
+     *
+     * @param locationSetting the location to compact, or null for all of them
+     * @return how many days were folded
+     */
+    int compact(String locationSetting, int cutoff) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        String dailyLimit = Integer.toString(cutoff - ArchiveEntry.DAILY_RETENTION_DAYS);
+        String weeklyLimit = Integer.toString(cutoff - RollupEntry.WEEKLY_RETENTION_DAYS);
+        String daySelection = WeatherEntry.COLUMN_DATE + " < ?";
+        String[] daySelectionArgs = new String[]{dailyLimit};
+        String weekSelection = RollupEntry.COLUMN_PERIOD + " = ? AND " +
+                RollupEntry.COLUMN_START_DATE + " < ?";
+        String[] weekSelectionArgs = new String[]{RollupEntry.PERIOD_WEEK, weeklyLimit};
+        if (locationSetting != null) {
+            daySelection += " AND " + ArchiveEntry.COLUMN_LOCATION_SETTING + " = ?";
+            daySelectionArgs = new String[]{dailyLimit, locationSetting};
+            weekSelection += " AND " + RollupEntry.COLUMN_LOCATION_SETTING + " = ?";
+            weekSelectionArgs = new String[]{RollupEntry.PERIOD_WEEK, weeklyLimit,
+                    locationSetting};
+        }
+
+        int folded = 0;
+        db.beginTransaction();
+        try {
+            // location setting -> period -> start date -> rollup
+            Map<String, Map<String, SortedMap<Integer, Rollup>>> rollups =
+                    new LinkedHashMap<String, Map<String, SortedMap<Integer, Rollup>>>();
+            Time time = new Time();
+            Cursor days = db.query(ArchiveEntry.TABLE_NAME, DAY_COLUMNS, daySelection,
+                    daySelectionArgs, null, null, null);
+            try {
+                int locationIndex = days.getColumnIndex(ArchiveEntry.COLUMN_LOCATION_SETTING);
+                while (days.moveToNext()) {
+                    String setting = days.getString(locationIndex);
+                    Map<String, SortedMap<Integer, Rollup>> byPeriod = rollups.get(setting);
+                    if (byPeriod == null) {
+                        byPeriod = new LinkedHashMap<String, SortedMap<Integer, Rollup>>();
+                        for (String period : PERIODS) {
+                            byPeriod.put(period, new TreeMap<Integer, Rollup>());
+                        }
+                        rollups.put(setting, byPeriod);
+                    }
+                    for (String period : PERIODS) {
+                        addDay(byPeriod.get(period), period, days, time);
+                    }
+                    folded++;
+                }
+            } finally {
+                days.close();
+            }
+
+            for (Map.Entry<String, Map<String, SortedMap<Integer, Rollup>>> location
+                    : rollups.entrySet()) {
+                for (Map.Entry<String, SortedMap<Integer, Rollup>> period
+                        : location.getValue().entrySet()) {
+                    for (Rollup rollup : period.getValue().values()) {
+                        Rollup stored = getRollup(db, location.getKey(), period.getKey(),
+                                rollup.startDate);
+                        if (stored != null) {
+                            rollup.add(stored);
+                        }
+                        db.insert(RollupEntry.TABLE_NAME, null,
+                                rollup.toValues(location.getKey(), period.getKey()));
+                    }
+                }
+            }
+            db.delete(ArchiveEntry.TABLE_NAME, daySelection, daySelectionArgs);
+            db.delete(RollupEntry.TABLE_NAME, weekSelection, weekSelectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return folded;
+    }
+
+    /**
+     * Works out the aggregates of every window up to endDate again from the archived days, in
+     * one transaction.  A window is at most a month of days, found through the index on the
+     * location and date, so this costs about as much as archiving a day does.
+     *
+     * @param locationSetting the location to work out, or null for all of them
+     * @param endDate the day after the windows, usually the last cutoff
+     */
+    void refreshAggregates(String locationSetting, int endDate) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        String insert = sInsertAggregates;
+        String deleteSelection = null;
+        String[] deleteSelectionArgs = null;
+        if (locationSetting != null) {
+            insert += " AND " + ArchiveEntry.COLUMN_LOCATION_SETTING + " = ?";
+            deleteSelection = AggregateEntry.COLUMN_LOCATION_SETTING + " = ?";
+            deleteSelectionArgs = new String[]{locationSetting};
+        }
+        insert += " GROUP BY " + ArchiveEntry.COLUMN_LOCATION_SETTING;
+
+        db.beginTransaction();
+        try {
+            // A location without any days in a window has no row for it.
+            db.delete(AggregateEntry.TABLE_NAME, deleteSelection, deleteSelectionArgs);
+            for (int window : WINDOWS) {
+                int startDate = endDate - window;
+                if (locationSetting != null) {
+                    db.execSQL(insert, new Object[]{window, endDate, startDate, endDate,
+                            locationSetting});
+                } else {
+                    db.execSQL(insert, new Object[]{window, endDate, startDate, endDate});
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @param locationSetting the location, or null for all of them
+     * @param window one of AggregateEntry's WINDOW_ constants, or 0 for all of them
+     */
+    Cursor queryAggregates(String[] projection, String locationSetting, int window,
+                           String sortOrder) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (locationSetting != null) {
+            selection = AggregateEntry.COLUMN_LOCATION_SETTING + " = ?";
+            selectionArgs = new String[]{locationSetting};
+        }
+        if (locationSetting != null && window != 0) {
+            selection += " AND " + AggregateEntry.COLUMN_WINDOW + " = ?";
+            selectionArgs = new String[]{locationSetting, Integer.toString(window)};
+        }
+        return mOpenHelper.getReadableDatabase().query(AggregateEntry.TABLE_NAME, projection,
+                selection, selectionArgs, null, null, sortOrder);
+    }
+
+    private static Rollup getRollup(SQLiteDatabase db, String locationSetting, String period,
+                                    int startDate) {
+        Cursor cursor = db.query(RollupEntry.TABLE_NAME, STORED_ROLLUP_COLUMNS,
+                RollupEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                        RollupEntry.COLUMN_PERIOD + " = ? AND " +
+                        RollupEntry.COLUMN_START_DATE + " = ?",
+                new String[]{locationSetting, period, Integer.toString(startDate)},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? Rollup.fromStored(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds a day, in the columns of DAY_COLUMNS, to the rollup of the period it falls in.
+     */
+    static void addDay(SortedMap<Integer, Rollup> rollups, String period, Cursor day,
+                       Time time) {
+        int startDate = getPeriodStart(period,
+                day.getInt(day.getColumnIndex(WeatherEntry.COLUMN_DATE)), time);
+        Rollup rollup = rollups.get(startDate);
+        if (rollup == null) {
+            rollup = new Rollup(startDate);
+            rollups.put(startDate, rollup);
+        }
+        rollup.addDay(day);
+    }
+
+    /**
+     * @return the stored rollups of the location, by start date
+     */
+    SortedMap<Integer, Rollup> getRollups(String locationSetting, String period) {
+        SortedMap<Integer, Rollup> rollups = new TreeMap<Integer, Rollup>();
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(RollupEntry.TABLE_NAME,
+                STORED_ROLLUP_COLUMNS,
+                RollupEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                        RollupEntry.COLUMN_PERIOD + " = ?",
+                new String[]{locationSetting, period},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Rollup rollup = Rollup.fromStored(cursor);
+                rollups.put(rollup.startDate, rollup);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rollups;
+    }
+
+    static Cursor toCursor(SortedMap<Integer, Rollup> rollups, String period) {
+        MatrixCursor cursor = new MatrixCursor(ROLLUP_COLUMNS, rollups.size());
+        long id = 0;
+        for (Rollup rollup : rollups.values()) {
+            cursor.addRow(rollup.toRow(id++, period));
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the archived days of the location from startDate up to endDate, oldest first,
+     * in the columns of DAY_COLUMNS with an _ID in front
+     */
+    Cursor queryDays(String locationSetting, int startDate, int endDate) {
+        String[] columns = new String[DAY_COLUMNS.length + 1];
+        columns[0] = ArchiveEntry._ID;
+        System.arraycopy(DAY_COLUMNS, 0, columns, 1, DAY_COLUMNS.length);
+        return mOpenHelper.getReadableDatabase().query(ArchiveEntry.TABLE_NAME, columns,
+                sLocationSettingAndDateRangeSelection,
+                new String[]{locationSetting, Integer.toString(startDate),
+                        Integer.toString(endDate)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    Cursor query(String[] projection, String selection, String[] selectionArgs,
+                 String sortOrder) {
+        return mOpenHelper.getReadableDatabase().query(ArchiveEntry.TABLE_NAME, projection,
+                selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Deletes days, rollups and aggregates alike.  The selection can only use the location
+     * setting, the one column they have in common.
+     *
+     * @return how many days, rollups and aggregates were deleted
+     */
+    int delete(String selection, String[] selectionArgs) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int count;
+        db.beginTransaction();
+        try {
+            count = db.delete(ArchiveEntry.TABLE_NAME, selection, selectionArgs)
+                    + db.delete(RollupEntry.TABLE_NAME, selection, selectionArgs)
+                    + db.delete(AggregateEntry.TABLE_NAME, selection, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    void close() {
+        mOpenHelper.close();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+/**
+ * Daily forecast rows for one location, on their way into the weather table through
+ * {@link WeatherContract.WeatherEntry#METHOD_INGEST}, along with the location itself and what
+ * to clear out of the way of them.  Instead of a ContentValues per row, and a boxed value per
+ * column, the values are packed into one primitive array per column.  Only the first rowCount
+ * entries of each column are rows.
+ */
+public class WeatherBatch {
+    private static final String KEY_LOCATION = "location";
+    private static final String KEY_ROW_COUNT = "row_count";
+    private static final String KEY_ARCHIVE_BEFORE = "archive_before";
+    private static final String KEY_HOURLY_BEFORE = "hourly_before";
+
+    // The location's LocationEntry columns.  It is added unless its setting is stored already.
+    public final ContentValues location;
+    public int rowCount;
+    // The location's days before this day are moved to the archive, or none if it is 0.
+    public int archiveBefore;
+    // The location's hourly slots starting before this time are deleted, or none if it is 0.
+    public long hourlyBefore;
+
+    public int[] dates;
+    public int[] weatherIds;
+    public String[] shortDescs;
+    public double[] minTemps;
+    public double[] maxTemps;
+    public double[] humidities;
+    public double[] pressures;
+    public double[] windSpeeds;
+    public double[] degrees;
+
+    public WeatherBatch(ContentValues location, int capacity) {
+        this.location = location;
+        dates = new int[capacity];
+        weatherIds = new int[capacity];
+        shortDescs = new String[capacity];
+        minTemps = new double[capacity];
+        maxTemps = new double[capacity];
+        humidities = new double[capacity];
+        pressures = new double[capacity];
+        windSpeeds = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    /**
+     * Makes room for one more row and returns its index.  The caller fills in the columns.
+     */
+    public int addRow() {
+        if (rowCount == dates.length) {
+            int capacity = Math.max(dates.length * 2, 16);
+            int[] grownDates = new int[capacity];
+            System.arraycopy(dates, 0, grownDates, 0, rowCount);
+            dates = grownDates;
+            int[] grownWeatherIds = new int[capacity];
+            System.arraycopy(weatherIds, 0, grownWeatherIds, 0, rowCount);
+            weatherIds = grownWeatherIds;
+            String[] grownShortDescs = new String[capacity];
+            System.arraycopy(shortDescs, 0, grownShortDescs, 0, rowCount);
+            shortDescs = grownShortDescs;
+            minTemps = grow(minTemps, capacity);
+            maxTemps = grow(maxTemps, capacity);
+            humidities = grow(humidities, capacity);
+            pressures = grow(pressures, capacity);
+            windSpeeds = grow(windSpeeds, capacity);
+            degrees = grow(degrees, capacity);
+        }
+        return rowCount++;
+    }
+
+    private double[] grow(double[] column, int capacity) {
+        double[] grown = new double[capacity];
+        System.arraycopy(column, 0, grown, 0, rowCount);
+        return grown;
+    }
+
+    /**
+     * @return the batch as provider method extras.  The arrays are shared, not copied.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(KEY_LOCATION, location);
+        bundle.putInt(KEY_ROW_COUNT, rowCount);
+        bundle.putInt(KEY_ARCHIVE_BEFORE, archiveBefore);
+        bundle.putLong(KEY_HOURLY_BEFORE, hourlyBefore);
+        bundle.putIntArray(WeatherContract.WeatherEntry.COLUMN_DATE, dates);
+        bundle.putIntArray(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherIds);
+        bundle.putStringArray(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, shortDescs);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, minTemps);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemps);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidities);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressures);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeeds);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_DEGREES, degrees);
+        return bundle;
+    }
+
+    static WeatherBatch fromBundle(Bundle bundle) {
+        WeatherBatch batch = new WeatherBatch(
+                (ContentValues) bundle.getParcelable(KEY_LOCATION), 0);
+        batch.rowCount = bundle.getInt(KEY_ROW_COUNT);
+        batch.archiveBefore = bundle.getInt(KEY_ARCHIVE_BEFORE);
+        batch.hourlyBefore = bundle.getLong(KEY_HOURLY_BEFORE);
+        batch.dates = bundle.getIntArray(WeatherContract.WeatherEntry.COLUMN_DATE);
+        batch.weatherIds = bundle.getIntArray(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        batch.shortDescs = bundle.getStringArray(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        batch.minTemps = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        batch.maxTemps = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        batch.humidities = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        batch.pressures = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        batch.windSpeeds = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        batch.degrees = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        return batch;
+    }
+}
@@ -21,6 +21,8 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import java.util.TimeZone;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,15 +45,59 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_SYNC_TIMING = "sync_timing";
+    public static final String PATH_QUERY_CACHE = "query_cache";
+    public static final String PATH_MIGRATION = "migration";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_ROLLUP = "rollup";
+    public static final String PATH_AGGREGATE = "aggregate";
+
+    // Key of the row count in the Bundle a provider method returns.
+    public static final String KEY_COUNT = "count";
+
+    // Dates go into the database, and into the uris, as the Julian day of the local date,
+    // the same day number Time works with.  A day is a small integer, so it takes less room in
+    // the rows and the indexes than milliseconds do, and there is nothing to normalize on the
+    // way in.  It only becomes milliseconds to be shown; see getDateMillis.
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    // The days a date column takes, from the epoch to the end of the year 9999.  A date outside
+    // them is most likely seconds or milliseconds, from before dates were Julian days.
+    public static final int MIN_JULIAN_DAY = Time.EPOCH_JULIAN_DAY;
+    public static final int MAX_JULIAN_DAY = 5373484;
+
+    /**
+     * @return whether the value can be a date as the database stores them
+     */
+    public static boolean isJulianDay(long value) {
+        return value >= MIN_JULIAN_DAY && value <= MAX_JULIAN_DAY;
+    }
+
+    /**
+     * @return the Julian day of the local date the time falls on
+     */
+    public static int getJulianDay(long millis) {
+        return Time.getJulianDay(millis, TimeZone.getDefault().getOffset(millis) / 1000);
+    }
+
+    /**
+     * @return the start of the Julian day in local time, in milliseconds since the epoch
+     */
+    public static long getDateMillis(int julianDay) {
+        long utcMidnight = (julianDay - Time.EPOCH_JULIAN_DAY) * DAY_MILLIS;
+        TimeZone zone = TimeZone.getDefault();
+        // The offset at local midnight, which differs from the one at UTC midnight when a
+        // daylight saving change falls in between.
+        return utcMidnight - zone.getOffset(utcMidnight - zone.getOffset(utcMidnight));
+    }
 
-    // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
-    public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+    private static long getLongParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (null != value && value.length() > 0)
+            return Long.parseLong(value);
+        else
+            return defaultValue;
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +127,26 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Query parameter for an insert that updates and hands back the stored row if the
+        // location setting is already there, instead of failing.
+        public static final String PARAM_UPSERT = "upsert";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /*
+            Inserting into this uri returns the uri of the location's row whether or not it was
+            already stored, so later operations in a batch can refer back to its id.  A stored
+            row takes the other values, if any of them differ.
+         */
+        public static Uri buildLocationUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "true").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_UPSERT));
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -101,7 +164,7 @@ public class WeatherContract {
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
-        // Date, stored as long in milliseconds since the epoch
+        // Date, stored as the Julian day of the local date; see getJulianDay
         public static final String COLUMN_DATE = "date";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
@@ -126,10 +189,62 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter that turns a bulk insert into a change-aware upsert.
+        public static final String PARAM_UPSERT = "upsert";
+
+        /*
+            Provider method that stores a WeatherBatch, passed as the extras: the location is
+            upserted like an insert into its upsert uri, then the days the same way as a bulk
+            insert into the weather upsert uri.  The location's hourly slots before the batch's
+            cutoff are deleted and its days before the archive cutoff are moved to the archive,
+            like METHOD_ARCHIVE, all in the same transaction, and observers are told once.  The
+            rows go through compiled statements without a ContentValues per row.  The result
+            holds the number of days inserted or updated under KEY_COUNT, and the location's row
+            id under COLUMN_LOC_KEY.  Needs Honeycomb or later.
+         */
+        public static final String METHOD_INGEST = "ingest_weather";
+
+        /*
+            Provider method that moves the days before a cutoff out of this table and into the
+            archive, where they stay as history.  The arg is the location setting, or null for
+            every location, and the extras hold the cutoff day as an int under COLUMN_DATE.  The
+            result holds the number of days moved under KEY_COUNT.  Needs Honeycomb or later.
+         */
+        public static final String METHOD_ARCHIVE = "archive_weather";
+
+        /*
+            Provider method that returns the first day of a location from a given day on, for
+            the widgets, Muzei, the notification and the watch, which only ever show that one
+            day.  The arg is the location setting, and the extras hold the day as an int under
+            COLUMN_DATE.
+            The result holds COLUMN_DATE, COLUMN_WEATHER_ID, COLUMN_SHORT_DESC, COLUMN_MAX_TEMP
+            and COLUMN_MIN_TEMP, or is null if there is no such day.  Needs Honeycomb or later.
+         */
+        public static final String METHOD_SUMMARY = "weather_summary";
+
+        // Query parameters of a history query.  The start is inclusive and the end exclusive.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /*
+            Bulk inserting into this uri only writes the rows that differ from what is already
+            stored, and only notifies the dates that changed.  A column left out of the values
+            keeps what is stored.  The count returned is the number of rows that were inserted or
+            updated.  An update through this uri does the same for a single row, which is how an
+            upsert goes into a batch of operations; its selection is ignored.
+         */
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "true").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -138,31 +253,400 @@ public class WeatherContract {
         }
 
         public static Uri buildWeatherLocationWithStartDate(
-                String locationSetting, long startDate) {
-            long normalizedDate = normalizeDate(startDate);
+                String locationSetting, int startDay) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
+                    .appendQueryParameter(COLUMN_DATE, Integer.toString(startDay)).build();
         }
 
-        public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
+        public static Uri buildWeatherLocationWithDate(String locationSetting, int day) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendPath(Long.toString(normalizeDate(date))).build();
+                    .appendPath(Integer.toString(day)).build();
+        }
+
+        /*
+            The daily history of the location from startDay up to endDay, oldest first, across
+            this table and the archive.  Days that have been compacted into rollups are no longer
+            in it; see buildWeatherRollup.  The columns are those of ArchiveEntry.
+         */
+        public static Uri buildWeatherHistory(String locationSetting, int startDay, int endDay) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_HISTORY)
+                    .appendQueryParameter(PARAM_START, Integer.toString(startDay))
+                    .appendQueryParameter(PARAM_END, Integer.toString(endDay))
+                    .build();
+        }
+
+        /*
+            The location's weather summed up by week or by month, oldest first, over every day
+            we have or have had, wherever it is stored now.  The columns are those of
+            RollupEntry.
+         */
+        public static Uri buildWeatherRollup(String locationSetting, String period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_ROLLUP)
+                    .appendPath(period).build();
         }
 
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
-        public static long getDateFromUri(Uri uri) {
-            return Long.parseLong(uri.getPathSegments().get(2));
+        public static int getStartDateFromHistoryUri(Uri uri) {
+            return (int) getLongParameter(uri, PARAM_START, 0);
         }
 
-        public static long getStartDateFromUri(Uri uri) {
+        public static int getEndDateFromHistoryUri(Uri uri) {
+            return (int) getLongParameter(uri, PARAM_END, Integer.MAX_VALUE);
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getPathSegments().get(3);
+        }
+
+        public static int getDateFromUri(Uri uri) {
+            return parseDay(uri.getPathSegments().get(2));
+        }
+
+        public static int getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
-                return Long.parseLong(dateString);
+                return parseDay(dateString);
             else
                 return 0;
         }
+
+        /*
+            A uri from before dates were Julian days, held on to by a widget or a notification
+            since then, has milliseconds in it instead.  No Julian day is that large.
+         */
+        private static int parseDay(String date) {
+            long value = Long.parseLong(date);
+            return value > Integer.MAX_VALUE ? getJulianDay(value) : (int) value;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly forecast table.  There is one
+        row per forecast slot (every three hours for OWM) per location, so there are many more
+        of these than weather rows.  Rows are kept narrow: the description is not stored, since
+        it can be looked up from the weather id.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the forecast slot, stored as long in milliseconds since the epoch.  Unique
+        // per location.
+        public static final String COLUMN_TIME = "time";
+        // Temperature for the slot (stored as a float)
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity is stored as an integer percentage
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Windspeed is stored as a float, in the same units as the weather table
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Weather id as returned by API, to identify the icon and description
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Query parameters of a range query.  The start is inclusive and the end exclusive.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+        public static final String PARAM_LIMIT = "limit";
+
+        /*
+            Provider method that writes an HourlyBatch, passed as the extras, through a compiled
+            statement.  A slot that is already stored is replaced.  The result holds the number
+            of rows written under KEY_COUNT.  Needs Honeycomb or later.
+         */
+        public static final String METHOD_INGEST = "ingest_hourly";
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /*
+            The slots for the location from startTime up to endTime, oldest first, and at most
+            limit of them (0 for no limit).  To page through a long range, ask again with the
+            time of the last row you got plus one as the new start.
+         */
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long startTime,
+                                                       long endTime, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startTime))
+                    .appendQueryParameter(PARAM_END, Long.toString(endTime));
+            if (limit > 0) {
+                builder.appendQueryParameter(PARAM_LIMIT, Integer.toString(limit));
+            }
+            return builder.build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_START, 0);
+        }
+
+        public static long getEndTimeFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_END, Long.MAX_VALUE);
+        }
+
+        /**
+         * @return the limit as a String, ready for a LIMIT clause, or null for no limit.
+         */
+        public static String getLimitFromUri(Uri uri) {
+            long limit = getLongParameter(uri, PARAM_LIMIT, 0);
+            return limit > 0 ? Long.toString(limit) : null;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the sync timing table.  Every sync pass
+        records how long each of its stages took.  Only the most recent MAX_ROWS rows are kept.
+     */
+    public static final class SyncTimingEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_TIMING).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_TIMING;
+
+        public static final String TABLE_NAME = "sync_timing";
+
+        // The number of rows the table is trimmed to.
+        public static final int MAX_ROWS = 2000;
+
+        // When the sync pass started, in milliseconds since the epoch.  Every stage of a pass
+        // has the same value, so this also identifies the pass.
+        public static final String COLUMN_SYNC_ID = "sync_id";
+        // The location the stage worked on, or null for stages that cover the whole pass.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // One of the STAGE_ constants below.
+        public static final String COLUMN_STAGE = "stage";
+        // How long the stage took, in milliseconds.
+        public static final String COLUMN_DURATION = "duration";
+        // For network stages, the bytes moved.  For database stages, the rows written.
+        public static final String COLUMN_BYTES = "bytes";
+        // The location status the stage ended with, as a SunshineSyncAdapter.LOCATION_STATUS_.
+        // The downstream stages (widgets, Muzei, notification, Wear) record UNKNOWN when they
+        // failed or ran out of time.
+        public static final String COLUMN_OUTCOME = "outcome";
+
+        // Opening the connection.
+        public static final String STAGE_CONNECT = "connect";
+        // From the request being sent to the status line arriving.
+        public static final String STAGE_FIRST_BYTE = "first_byte";
+        // Time spent waiting on the network for the body.
+        public static final String STAGE_DOWNLOAD = "download";
+        // Decoding and parsing the body, less the time spent waiting on the network.
+        public static final String STAGE_PARSE = "parse";
+        // Writing a location's forecast.  The location, the days, the pruning of old hourly
+        // slots and the archiving or pruning of old days go in as one transaction, so this
+        // covers all of them.  Its bytes are the days written.
+        public static final String STAGE_DB_WRITE = "db_write";
+        public static final String STAGE_HOURLY_WRITE = "hourly_write";
+        public static final String STAGE_UPDATE_WIDGETS = "update_widgets";
+        public static final String STAGE_UPDATE_MUZEI = "update_muzei";
+        public static final String STAGE_NOTIFY_WEATHER = "notify_weather";
+        public static final String STAGE_NOTIFY_WEAR = "notify_wear";
+        // The whole pass, from start to finish.  Its bytes are the total on the wire.
+        public static final String STAGE_SYNC = "sync";
+    }
+
+    /*
+        Debug view of the provider's query cache.  Querying it returns a single row of counters
+        since the provider started.
+     */
+    public static final class QueryCacheEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_QUERY_CACHE).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_QUERY_CACHE;
+
+        // Queries answered from the cache, and queries that went to the database.
+        public static final String COLUMN_HITS = "hits";
+        public static final String COLUMN_MISSES = "misses";
+        // Hits over all lookups, from 0 to 1.
+        public static final String COLUMN_HIT_RATE = "hit_rate";
+        // How many results are cached, and roughly how many bytes they take up.
+        public static final String COLUMN_ENTRIES = "entries";
+        public static final String COLUMN_BYTES = "bytes";
+        public static final String COLUMN_MAX_BYTES = "max_bytes";
+        // Entries pushed out to stay within the budget, and entries dropped by writes.
+        public static final String COLUMN_EVICTIONS = "evictions";
+        public static final String COLUMN_INVALIDATIONS = "invalidations";
+    }
+
+    /*
+        Inner class that defines the table contents of the migration table.  Every schema step
+        with rows to backfill gets a row when the database is upgraded, and the row follows the
+        backfill as it runs in the background.  Observers of the uri hear about each chunk.
+     */
+    public static final class MigrationEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_MIGRATION).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MIGRATION;
+
+        public static final String TABLE_NAME = "migration";
+
+        // The database version the step migrates to.
+        public static final String COLUMN_VERSION = "version";
+        // How many rows have been backfilled so far, and how many there were to begin with.
+        public static final String COLUMN_ROWS_DONE = "rows_done";
+        public static final String COLUMN_ROWS_TOTAL = "rows_total";
+        // 1 once the backfill is done, 0 until then.
+        public static final String COLUMN_FINISHED = "finished";
+    }
+
+    /*
+        Inner class that defines the table contents of the archive's daily table.  The archive
+        is a database of its own, weather_archive.db, which holds the days that have left the
+        weather table, so history can grow without slowing down the queries for the coming
+        days.  A day stays here for DAILY_RETENTION_DAYS and then only lives on in the rollups.
+        Rows are keyed by the location setting rather than the location id, since the archive
+        outlives the location table.  The other columns are those of WeatherEntry.  Deleting
+        through the uri deletes from the rollups and the aggregates as well.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_daily";
+
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // How long a day is kept as it is, counting back from the last cutoff it was archived
+        // with.
+        public static final int DAILY_RETENTION_DAYS = 92;
+    }
+
+    /*
+        Inner class that defines the table contents of the archive's rollup table.  Each row
+        sums up a week, starting on a Monday, or a calendar month of one location.  Weekly rows
+        are kept for WEEKLY_RETENTION_DAYS, monthly rows for good.
+     */
+    public static final class RollupEntry implements BaseColumns {
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ROLLUP;
+
+        public static final String TABLE_NAME = "weather_rollup";
+
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        public static final int WEEKLY_RETENTION_DAYS = 2 * 365;
+
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // One of the PERIOD_ constants.
+        public static final String COLUMN_PERIOD = "period";
+        // The first day of the period, a Julian day like WeatherEntry.COLUMN_DATE.
+        public static final String COLUMN_START_DATE = "start_date";
+        // How many days of the period we have weather for.
+        public static final String COLUMN_DAYS = "days";
+        // The lowest low and the highest high of the period.
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Stored sums, from which the averages are worked out.  They aren't in query results.
+        public static final String COLUMN_SUM_MIN_TEMP = "sum_min";
+        public static final String COLUMN_SUM_MAX_TEMP = "sum_max";
+        public static final String COLUMN_SUM_HUMIDITY = "sum_humidity";
+        public static final String COLUMN_SUM_PRESSURE = "sum_pressure";
+        public static final String COLUMN_SUM_WIND_SPEED = "sum_wind";
+
+        // Averages over the days of the period.  Only in query results.
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+    }
+
+    /*
+        Inner class that defines the table contents of the archive's aggregate table.  Each row
+        sums up the last WINDOW_ days of one location up to the last archived day, so comparing
+        today with them is a single row lookup.  The sync refreshes them each time it archives.
+
+        Temperature is summed up by the lowest low, the highest high, and the mean and variance
+        of the daily midpoint between the two.  Variances are of the whole window, not of a
+        sample.
+     */
+    public static final class AggregateEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_AGGREGATE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+
+        public static final String TABLE_NAME = "weather_aggregate";
+
+        public static final int WINDOW_WEEK = 7;
+        public static final int WINDOW_MONTH = 30;
+
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // How many days back the window reaches, one of the WINDOW_ constants.
+        public static final String COLUMN_WINDOW = "window_days";
+        // The day after the window, a Julian day like WeatherEntry.COLUMN_DATE.
+        public static final String COLUMN_END_DATE = "end_date";
+        // How many days of the window we have weather for.
+        public static final String COLUMN_DAYS = "days";
+
+        public static final String COLUMN_MIN_TEMP = "temp_min";
+        public static final String COLUMN_MAX_TEMP = "temp_max";
+        public static final String COLUMN_MEAN_TEMP = "temp_mean";
+        public static final String COLUMN_VARIANCE_TEMP = "temp_variance";
+
+        public static final String COLUMN_MIN_HUMIDITY = "humidity_min";
+        public static final String COLUMN_MAX_HUMIDITY = "humidity_max";
+        public static final String COLUMN_MEAN_HUMIDITY = "humidity_mean";
+        public static final String COLUMN_VARIANCE_HUMIDITY = "humidity_variance";
+
+        public static final String COLUMN_MIN_PRESSURE = "pressure_min";
+        public static final String COLUMN_MAX_PRESSURE = "pressure_max";
+        public static final String COLUMN_MEAN_PRESSURE = "pressure_mean";
+        public static final String COLUMN_VARIANCE_PRESSURE = "pressure_variance";
+
+        public static final String COLUMN_MIN_WIND_SPEED = "wind_min";
+        public static final String COLUMN_MAX_WIND_SPEED = "wind_max";
+        public static final String COLUMN_MEAN_WIND_SPEED = "wind_mean";
+        public static final String COLUMN_VARIANCE_WIND_SPEED = "wind_variance";
+
+        // Every window of the location.
+        public static Uri buildAggregateLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildAggregateLocationWithWindow(String locationSetting, int window) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Integer.toString(window)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static int getWindowFromUri(Uri uri) {
+            return Integer.parseInt(uri.getPathSegments().get(2));
+        }
     }
 }
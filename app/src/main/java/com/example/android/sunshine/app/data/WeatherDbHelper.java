@@ -15,29 +15,219 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MigrationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // Add a Migration for the new version to MIGRATIONS as well, so the upgrade keeps the data.
+    static final int DATABASE_VERSION = 6;
+    // Databases older than this predate the migrations and are recreated instead.
+    private static final int FIRST_MIGRATED_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // In write-ahead logging mode SQLite checkpoints on its own whenever the log passes this
+    // many pages.  Android sets it low, which makes a big sync stop to checkpoint over and over
+    // in the middle of its transaction.  This leaves room for the largest pass, and the idle
+    // checkpoint below keeps the log short the rest of the time.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+    // How long the database has to go without a write before the log is checkpointed.
+    private static final long CHECKPOINT_IDLE_MILLIS = 5 * 1000;
+    // Rows per backfill transaction.  Small enough that a sync waiting to write isn't held up
+    // for long.
+    static final int BACKFILL_CHUNK = 500;
+
+    // Runs the checkpoints and the backfills.
+    private static final ScheduledExecutorService sBackgroundExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+    private final Context mContext;
+    private ScheduledFuture<?> mCheckpoint;
+    private boolean mBackfillScheduled;
+    private volatile BackfillListener mBackfillListener;
+
+    /**
+     * Hears about each chunk of a backfill once it has committed.  Called on a background
+     * thread.
+     */
+    interface BackfillListener {
+        void onBackfillProgress(int version, long rowsDone, long rowsTotal);
+    }
+
+    // The steps from FIRST_MIGRATED_VERSION on, in order.
+    private static final Migration[] MIGRATIONS = {
+            new Migration(3) {
+                @Override
+                void migrateSchema(SQLiteDatabase db) {
+                    createSyncTimingTable(db);
+                }
+            },
+            new Migration(4) {
+                @Override
+                void migrateSchema(SQLiteDatabase db) {
+                    createHourlyTable(db);
+                }
+            },
+            new Migration(5) {
+                @Override
+                void migrateSchema(SQLiteDatabase db) {
+                    createMigrationTable(db);
+                }
+            },
+            new Migration(6) {
+                @Override
+                void migrateSchema(SQLiteDatabase db) {
+                    // Dates become Julian days.  This visits every row, but readers select and
+                    // order on the dates, so it can't be a backfill that leaves them mixed.  It
+                    // stays quick because the table is small: each sync moves a location's
+                    // past days to the archive, or deletes them before Honeycomb, so it holds
+                    // the 14 coming days of each location and the few that went by since its
+                    // last sync.  That is a few hundred rows for a handful of
+                    // locations.  A table that keeps history would need a backfill instead.
+                    db.execSQL("UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+                            WeatherEntry.COLUMN_DATE + " = " +
+                            millisToJulianDay(WeatherEntry.COLUMN_DATE));
+                }
+            },
+    };
+
+    /**
+     * @return SQL that turns a column of dates in milliseconds, the start of a local day as
+     * they were stored before version 6, into the Julian days of WeatherContract.getJulianDay.
+     * SQLite's Julian days start at noon, hence the half day.
+     */
+    static String millisToJulianDay(String column) {
+        return "CAST(julianday(" + column + " / 1000, 'unixepoch', 'localtime', " +
+                "'start of day') + 0.5 AS INTEGER)";
+    }
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        // With write-ahead logging, readers don't wait for the sync's transactions, and each
+        // thread that reads gets a connection of its own from the pool.  CursorLoaders and
+        // the widgets keep querying while a sync writes.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            enableWriteAheadLogging(db);
+        }
+        // PRAGMA returns a row, so it has to go through a query.
+        Cursor cursor = db.rawQuery("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES,
+                null);
+        cursor.close();
+
+        // A backfill that didn't finish, because the process died or the database was closed,
+        // carries on where it stopped.
+        cursor = db.query(MigrationEntry.TABLE_NAME, new String[]{MigrationEntry._ID},
+                MigrationEntry.COLUMN_FINISHED + " = 0", null, null, null, null, "1");
+        try {
+            if (cursor.moveToFirst()) {
+                scheduleBackfill();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Called after every write.  Once the database has been idle for a while, the log is
+     * checkpointed back into the database, so that it doesn't grow and readers don't have to
+     * look through it.  The checkpoint is passive: it copies what it can without waiting on
+     * readers or writers, so it never holds anybody up.
+     */
+    synchronized void onWrite() {
+        if (mCheckpoint != null) {
+            mCheckpoint.cancel(false);
+        }
+        mCheckpoint = sBackgroundExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkpoint();
+            }
+        }, CHECKPOINT_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mCheckpoint != null) {
+            mCheckpoint.cancel(false);
+            mCheckpoint = null;
+        }
+        super.close();
+    }
+
+    /**
+     * @return whether the log was checkpointed, or false if it couldn't be or there is none
+     */
+    boolean checkpoint() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return false;
+        }
+        try {
+            Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+            try {
+                // busy, log pages, pages checkpointed.  The log is -1 when not in WAL mode.
+                if (cursor.moveToFirst() && cursor.getInt(1) >= 0) {
+                    Log.d(LOG_TAG, "Checkpointed " + cursor.getInt(2) + " of "
+                            + cursor.getInt(1) + " log pages");
+                    return cursor.getInt(0) == 0;
+                }
+                return false;
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            // The next idle period will try again.
+            Log.e(LOG_TAG, "Error checkpointing", e);
+            return false;
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // Snapshots left from a database that is gone would outlive its days.
+        ForecastSnapshot.deleteAll(mContext);
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -81,18 +271,225 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createHourlyTable(sqLiteDatabase);
+        createSyncTimingTable(sqLiteDatabase);
+        createMigrationTable(sqLiteDatabase);
     }
 
+    private static void createHourlyTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One row per slot per location.  The location comes first, so the index
+                // behind the constraint also serves range queries for a location by time.
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+    }
+
+    private static void createSyncTimingTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_SYNC_TIMING_TABLE = "CREATE TABLE " + SyncTimingEntry.TABLE_NAME + " (" +
+                // AUTOINCREMENT, so that ids only ever go up and the oldest rows are the lowest.
+                SyncTimingEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SyncTimingEntry.COLUMN_SYNC_ID + " INTEGER NOT NULL, " +
+                SyncTimingEntry.COLUMN_LOCATION_SETTING + " TEXT, " +
+                SyncTimingEntry.COLUMN_STAGE + " TEXT NOT NULL, " +
+                SyncTimingEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                SyncTimingEntry.COLUMN_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
+                SyncTimingEntry.COLUMN_OUTCOME + " INTEGER NOT NULL DEFAULT 0);";
+
+        // The table is a ring buffer: every insert pushes out whatever is older than the
+        // newest MAX_ROWS rows.
+        final String SQL_CREATE_SYNC_TIMING_TRIM_TRIGGER = "CREATE TRIGGER " +
+                SyncTimingEntry.TABLE_NAME + "_trim AFTER INSERT ON " +
+                SyncTimingEntry.TABLE_NAME + " BEGIN DELETE FROM " + SyncTimingEntry.TABLE_NAME +
+                " WHERE " + SyncTimingEntry._ID + " <= NEW." + SyncTimingEntry._ID + " - " +
+                SyncTimingEntry.MAX_ROWS + "; END;";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_TIMING_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_TIMING_TRIM_TRIGGER);
+    }
+
+    private static void createMigrationTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_MIGRATION_TABLE = "CREATE TABLE " + MigrationEntry.TABLE_NAME + " (" +
+                MigrationEntry._ID + " INTEGER PRIMARY KEY," +
+                MigrationEntry.COLUMN_VERSION + " INTEGER UNIQUE NOT NULL, " +
+                MigrationEntry.COLUMN_ROWS_DONE + " INTEGER NOT NULL DEFAULT 0, " +
+                MigrationEntry.COLUMN_ROWS_TOTAL + " INTEGER NOT NULL, " +
+                MigrationEntry.COLUMN_FINISHED + " INTEGER NOT NULL DEFAULT 0);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_MIGRATION_TABLE);
+    }
+
+    /*
+        Steps the schema up one version at a time, keeping the data.  Each step only changes
+        the schema here; the rows it has to fill in are left to a backfill in the background,
+        so the upgrade holds up the first query for as little time as possible.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // The snapshots were written from the old rows.  Readers go to the provider until the
+        // sync writes them again.
+        ForecastSnapshot.deleteAll(mContext);
+        if (oldVersion < FIRST_MIGRATED_VERSION) {
+            // There is no step from these, but the database is only a cache for online data,
+            // so it can be thrown away and synced again.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncTimingEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + MigrationEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > oldVersion && migration.version <= newVersion) {
+                Log.d(LOG_TAG, "Migrating to version " + migration.version);
+                migration.migrateSchema(sqLiteDatabase);
+                recordBackfill(sqLiteDatabase, migration);
+            }
+        }
+    }
+
+    /**
+     * Records that the step has rows to backfill, if it has any.  Every step from 5 on can have
+     * a backfill, since 5 is the version that added the migration table.
+     */
+    static void recordBackfill(SQLiteDatabase db, Migration migration) {
+        long rowsTotal = migration.countBackfill(db);
+        if (rowsTotal > 0) {
+            ContentValues values = new ContentValues();
+            values.put(MigrationEntry.COLUMN_VERSION, migration.version);
+            values.put(MigrationEntry.COLUMN_ROWS_TOTAL, rowsTotal);
+            db.insert(MigrationEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    private static Migration getMigration(int version) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version == version) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    void setBackfillListener(BackfillListener listener) {
+        mBackfillListener = listener;
+    }
+
+    private synchronized void scheduleBackfill() {
+        if (mBackfillScheduled) {
+            return;
+        }
+        mBackfillScheduled = true;
+        sBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WeatherDbHelper.this) {
+                    mBackfillScheduled = false;
+                }
+                backfill();
+            }
+        });
+    }
+
+    /**
+     * Runs every unfinished backfill to the end, oldest step first.  If the database is closed
+     * or a chunk fails, it stops, and the next open carries on.
+     */
+    void backfill() {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            List<Integer> versions = new ArrayList<Integer>();
+            Cursor cursor = db.query(MigrationEntry.TABLE_NAME,
+                    new String[]{MigrationEntry.COLUMN_VERSION},
+                    MigrationEntry.COLUMN_FINISHED + " = 0", null, null, null,
+                    MigrationEntry.COLUMN_VERSION + " ASC");
+            try {
+                while (cursor.moveToNext()) {
+                    versions.add(cursor.getInt(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            for (int version : versions) {
+                Migration migration = getMigration(version);
+                if (migration == null) {
+                    // Left behind by a version of the app that had this step; nothing to do.
+                    finishBackfill(db, version);
+                    continue;
+                }
+                backfill(db, migration);
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            Log.e(LOG_TAG, "Backfill stopped, will resume on the next open", e);
+        }
+    }
+
+    /**
+     * Backfills one step, BACKFILL_CHUNK rows per transaction, recording its progress with
+     * each chunk.
+     */
+    void backfill(SQLiteDatabase db, Migration migration) {
+        String[] version = new String[]{Integer.toString(migration.version)};
+        long rowsDone;
+        long rowsTotal;
+        Cursor cursor = db.query(MigrationEntry.TABLE_NAME,
+                new String[]{MigrationEntry.COLUMN_ROWS_DONE, MigrationEntry.COLUMN_ROWS_TOTAL},
+                MigrationEntry.COLUMN_VERSION + " = ?", version, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            rowsDone = cursor.getLong(0);
+            rowsTotal = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+
+        long start = System.currentTimeMillis();
+        int count;
+        do {
+            db.beginTransaction();
+            try {
+                count = migration.backfill(db, BACKFILL_CHUNK);
+                rowsDone += count;
+                // Rows written since the count was taken can make the total grow.
+                rowsTotal = Math.max(rowsTotal, rowsDone);
+                ContentValues progress = new ContentValues();
+                progress.put(MigrationEntry.COLUMN_ROWS_DONE, rowsDone);
+                progress.put(MigrationEntry.COLUMN_ROWS_TOTAL, rowsTotal);
+                progress.put(MigrationEntry.COLUMN_FINISHED, count == 0 ? 1 : 0);
+                db.update(MigrationEntry.TABLE_NAME, progress,
+                        MigrationEntry.COLUMN_VERSION + " = ?", version);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            BackfillListener listener = mBackfillListener;
+            if (listener != null) {
+                listener.onBackfillProgress(migration.version, rowsDone, rowsTotal);
+            }
+        } while (count > 0);
+        Log.d(LOG_TAG, "Backfilled " + rowsDone + " rows for version " + migration.version
+                + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void finishBackfill(SQLiteDatabase db, int version) {
+        ContentValues values = new ContentValues();
+        values.put(MigrationEntry.COLUMN_FINISHED, 1);
+        db.update(MigrationEntry.TABLE_NAME, values, MigrationEntry.COLUMN_VERSION + " = ?",
+                new String[]{Integer.toString(version)});
     }
 }
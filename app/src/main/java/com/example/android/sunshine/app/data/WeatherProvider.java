@@ -17,25 +17,83 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.text.format.Time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Results of the weather queries by location, which the UI, widgets, Muzei and the
+    // notification keep repeating.  Null before Honeycomb.
+    private QueryCache mQueryCache;
+    // The days behind the summary method.  Null before Honeycomb, like the method itself.
+    private SummaryCache mSummaries;
+    // Where the days that have gone by are kept.
+    private WeatherArchive mArchive;
+    // The ids of the locations the sync stores forecasts for.
+    private final LocationIdCache mLocationIds = new LocationIdCache();
+    // The uris changed so far by the batch running on this thread, if there is one.  They are
+    // notified together once the batch has committed.
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<Set<Uri>>();
+
+    // Statements for the upserts and the packed ingest paths, compiled the first time they are
+    // needed and kept until shutdown.  A statement holds its bindings, so it is only used while
+    // holding the provider's lock.
+    private SQLiteStatement mUpdateWeather;
+    private SQLiteStatement mInsertWeather;
+    // Before Honeycomb a statement can't say how many rows it updated, so this asks.
+    private SQLiteStatement mChanges;
+    private SQLiteStatement mInsertHourly;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_HISTORY = 103;
+    static final int WEATHER_ROLLUP = 104;
+    static final int HOURLY = 200;
+    static final int HOURLY_WITH_LOCATION = 201;
     static final int LOCATION = 300;
+    static final int SYNC_TIMING = 400;
+    static final int QUERY_CACHE = 500;
+    static final int MIGRATION = 600;
+    static final int ARCHIVE = 700;
+    static final int AGGREGATE = 800;
+    static final int AGGREGATE_WITH_LOCATION = 801;
+    static final int AGGREGATE_WITH_LOCATION_AND_WINDOW = 802;
+
+    // Room for a few dozen forecast lists and days, which is far more than the app asks for.
+    private static final long QUERY_CACHE_BYTES = 256 * 1024;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +107,16 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -68,9 +136,82 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND date >= ? AND date < ?
+    private static final String sLocationSettingAndDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
+    //location.location_setting = ? AND time >= ? AND time < ?
+    private static final String sLocationSettingAndTimeRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+
+    // Hourly rows are written with one compiled statement, bound once per row, since a sync
+    // writes dozens of them for every weather row.
+    private static final String sInsertHourlySql = "INSERT OR REPLACE INTO " +
+            WeatherContract.HourlyEntry.TABLE_NAME + " (" +
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + ", " +
+            WeatherContract.HourlyEntry.COLUMN_TIME + ", " +
+            WeatherContract.HourlyEntry.COLUMN_TEMP + ", " +
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    // The weather columns an upsert writes, in the order they are bound.
+    private static final String[] sIngestWeatherColumns = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE
+    };
+    private static final int INGEST_VALUE_COLUMNS = 8;
+
+    // UPDATE weather SET weather_id = COALESCE(?1, weather_id), ...
+    //         WHERE location_id = ?9 AND date = ?10
+    //         AND (weather_id IS NOT COALESCE(?1, weather_id) OR ...)
+    // Only a row that differs is written, so an unchanged day keeps quiet.  A column bound to
+    // null keeps its stored value, so a day can be upserted with only some of its columns.
+    private static final String sUpdateWeatherSql;
+    // A day that the update didn't touch is either unchanged or missing.  The insert tells
+    // them apart, and keeps the _ID of a stored day rather than replacing the row.  A new day
+    // missing a column breaks NOT NULL, which the insert ignores like the duplicate day.
+    private static final String sInsertWeatherSql;
+
+    static {
+        StringBuilder set = new StringBuilder();
+        StringBuilder differs = new StringBuilder();
+        for (int i = 0; i < INGEST_VALUE_COLUMNS; i++) {
+            String column = sIngestWeatherColumns[i];
+            String value = "COALESCE(?" + (i + 1) + ", " + column + ")";
+            set.append(i == 0 ? "" : ", ").append(column).append(" = ").append(value);
+            differs.append(i == 0 ? "" : " OR ").append(column).append(" IS NOT ").append(value);
+        }
+        sUpdateWeatherSql = "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " + set +
+                " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?9 AND " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?10 AND (" + differs + ")";
+
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < sIngestWeatherColumns.length; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        sInsertWeatherSql = "INSERT OR IGNORE INTO " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " (" + TextUtils.join(", ", sIngestWeatherColumns) + ") VALUES (" +
+                placeholders + ")";
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        int startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
         String selection;
@@ -79,7 +220,7 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+            selectionArgs = new String[]{locationSetting, Integer.toString(startDate)};
             selection = sLocationSettingWithStartDateSelection;
         }
 
@@ -96,18 +237,88 @@ public class WeatherProvider extends ContentProvider {
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        int date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                new String[]{locationSetting, Integer.toString(date)},
                 null,
                 null,
                 sortOrder
         );
     }
 
+    /*
+        A location's days from both tiers, oldest first.  The archive only supplies the days
+        before the first one still in the weather table, so a day caught between the two while
+        it is being moved isn't there twice.
+     */
+    private Cursor getWeatherHistory(String locationSetting, int startDate, int endDate) {
+        String[] columns = new String[WeatherArchive.DAY_COLUMNS.length + 1];
+        columns[0] = WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                WeatherContract.WeatherEntry._ID + " AS " + WeatherContract.WeatherEntry._ID;
+        System.arraycopy(WeatherArchive.DAY_COLUMNS, 0, columns, 1,
+                WeatherArchive.DAY_COLUMNS.length);
+        Cursor recent = sWeatherByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                columns,
+                sLocationSettingAndDateRangeSelection,
+                new String[]{locationSetting, Integer.toString(startDate),
+                        Integer.toString(endDate)},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        int archivedEndDate = endDate;
+        if (recent.moveToFirst()) {
+            archivedEndDate = recent.getInt(
+                    recent.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE));
+        }
+        recent.moveToPosition(-1);
+        Cursor archived = mArchive.queryDays(locationSetting, startDate, archivedEndDate);
+        return new MergeCursor(new Cursor[]{archived, recent});
+    }
+
+    /*
+        The stored rollups, topped up with the days that haven't been folded into them yet.
+     */
+    private Cursor getWeatherRollup(String locationSetting, String period) {
+        SortedMap<Integer, WeatherArchive.Rollup> rollups =
+                mArchive.getRollups(locationSetting, period);
+        Time time = new Time();
+        Cursor days = getWeatherHistory(locationSetting, 0, Integer.MAX_VALUE);
+        try {
+            while (days.moveToNext()) {
+                WeatherArchive.addDay(rollups, period, days, time);
+            }
+        } finally {
+            days.close();
+        }
+        return WeatherArchive.toCursor(rollups, period);
+    }
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+        long endTime = WeatherContract.HourlyEntry.getEndTimeFromUri(uri);
+
+        // Pages are only stable in time order, so that is the default.
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.HourlyEntry.COLUMN_TIME + " ASC";
+        }
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingAndTimeRangeSelection,
+                new String[]{locationSetting, Long.toString(startTime), Long.toString(endTime)},
+                null,
+                null,
+                sortOrder,
+                WeatherContract.HourlyEntry.getLimitFromUri(uri)
+        );
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -128,8 +339,28 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_HISTORY, WEATHER_HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_ROLLUP + "/*", WEATHER_ROLLUP);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TIMING, SYNC_TIMING);
+
+        matcher.addURI(authority, WeatherContract.PATH_QUERY_CACHE, QUERY_CACHE);
+
+        matcher.addURI(authority, WeatherContract.PATH_MIGRATION, MIGRATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE, AGGREGATE);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE + "/*", AGGREGATE_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE + "/*/#",
+                AGGREGATE_WITH_LOCATION_AND_WINDOW);
         return matcher;
     }
 
@@ -140,6 +371,17 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mQueryCache = new QueryCache(QUERY_CACHE_BYTES);
+            mSummaries = new SummaryCache();
+        }
+        mArchive = new WeatherArchive(getContext());
+        mOpenHelper.setBackfillListener(new WeatherDbHelper.BackfillListener() {
+            @Override
+            public void onBackfillProgress(int version, long rowsDone, long rowsTotal) {
+                notifyChange(WeatherContract.MigrationEntry.CONTENT_URI);
+            }
+        });
         return true;
     }
 
@@ -162,8 +404,30 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_HISTORY:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_ROLLUP:
+                return WeatherContract.RollupEntry.CONTENT_TYPE;
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HOURLY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_TIMING:
+                return WeatherContract.SyncTimingEntry.CONTENT_TYPE;
+            case QUERY_CACHE:
+                return WeatherContract.QueryCacheEntry.CONTENT_ITEM_TYPE;
+            case MIGRATION:
+                return WeatherContract.MigrationEntry.CONTENT_TYPE;
+            case ARCHIVE:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case AGGREGATE:
+                return WeatherContract.AggregateEntry.CONTENT_TYPE;
+            case AGGREGATE_WITH_LOCATION:
+                return WeatherContract.AggregateEntry.CONTENT_TYPE;
+            case AGGREGATE_WITH_LOCATION_AND_WINDOW:
+                return WeatherContract.AggregateEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,10 +436,25 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (mQueryCache != null
+                && (match == WEATHER_WITH_LOCATION || match == WEATHER_WITH_LOCATION_AND_DATE)) {
+            cacheKey = QueryCache.buildKey(uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), uri);
+                return cached;
+            }
+            cacheGeneration = mQueryCache.getGeneration();
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        Uri notificationUri = uri;
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -200,6 +479,24 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
             // "location"
             case LOCATION: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,11 +510,106 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "query_cache"
+            case QUERY_CACHE: {
+                if (mQueryCache == null) {
+                    throw new UnsupportedOperationException("No query cache before Honeycomb");
+                }
+                retCursor = mQueryCache.getStats();
+                break;
+            }
+            // "sync_timing"
+            case SYNC_TIMING: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncTimingEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "migration"
+            case MIGRATION: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.MigrationEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "weather/*/history"
+            case WEATHER_HISTORY: {
+                String locationSetting =
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                retCursor = getWeatherHistory(locationSetting,
+                        WeatherContract.WeatherEntry.getStartDateFromHistoryUri(uri),
+                        WeatherContract.WeatherEntry.getEndDateFromHistoryUri(uri));
+                // Every change to the location's days is notified under this.
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        locationSetting);
+                break;
+            }
+            // "weather/*/rollup/*"
+            case WEATHER_ROLLUP: {
+                String locationSetting =
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                String period = WeatherContract.WeatherEntry.getPeriodFromUri(uri);
+                if (!WeatherArchive.isPeriod(period)) {
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+                }
+                retCursor = getWeatherRollup(locationSetting, period);
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        locationSetting);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mArchive.query(projection, selection, selectionArgs, sortOrder);
+                break;
+            }
+            // "aggregate"
+            case AGGREGATE: {
+                retCursor = mArchive.queryAggregates(projection, null, 0, sortOrder);
+                break;
+            }
+            // "aggregate/*"
+            case AGGREGATE_WITH_LOCATION: {
+                retCursor = mArchive.queryAggregates(projection,
+                        WeatherContract.AggregateEntry.getLocationSettingFromUri(uri), 0,
+                        sortOrder);
+                break;
+            }
+            // "aggregate/*/#"
+            case AGGREGATE_WITH_LOCATION_AND_WINDOW: {
+                retCursor = mArchive.queryAggregates(projection,
+                        WeatherContract.AggregateEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.AggregateEntry.getWindowFromUri(uri), sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        if (cacheKey != null) {
+            String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+            if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+                int date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+                retCursor = mQueryCache.put(cacheKey, cacheGeneration, locationSetting, date, date,
+                        retCursor);
+            } else {
+                retCursor = mQueryCache.put(cacheKey, cacheGeneration, locationSetting,
+                        WeatherContract.WeatherEntry.getStartDateFromUri(uri), Long.MAX_VALUE,
+                        retCursor);
+            }
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
@@ -229,18 +621,25 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        Uri changedUri = uri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
+                int date = getDate(values);
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changedUri = getWeatherUri(db,
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY), date,
+                        new HashMap<Long, String>());
                 break;
             }
             case LOCATION: {
+                if (WeatherContract.LocationEntry.isUpsertUri(uri)) {
+                    return upsertLocation(db, values);
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
@@ -248,10 +647,18 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case SYNC_TIMING: {
+                long _id = db.insert(WeatherContract.SyncTimingEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(changedUri);
         return returnUri;
     }
 
@@ -260,57 +667,101 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        // The rows are looked up before they go, so that only their locations are notified.
+        Set<Uri> changedUris;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    changedUris = getWeatherUris(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case HOURLY:
+                    changedUris = getHourlyUris(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    changedUris = getLocationUris(db, selection, selectionArgs);
+                    mLocationIds.invalidate();
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case SYNC_TIMING:
+                    changedUris = Collections.singleton(uri);
+                    rowsDeleted = db.delete(
+                            WeatherContract.SyncTimingEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case ARCHIVE:
+                    changedUris = new LinkedHashSet<Uri>(Arrays.asList(uri,
+                            WeatherContract.AggregateEntry.CONTENT_URI));
+                    rowsDeleted = mArchive.delete(selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changedUris);
         }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
-        }
-    }
-
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        Set<Uri> changedUris;
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        if (match == WEATHER && WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+            return upsertWeather(new ContentValues[]{values});
+        }
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                        getDate(values);
+                    }
+                    changedUris = getWeatherUris(db, selection, selectionArgs);
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                            || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                        // The rows move to where we can't tell without reading them again.
+                        changedUris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    changedUris = getLocationUris(db, selection, selectionArgs);
+                    String newSetting = values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    if (newSetting != null) {
+                        changedUris.add(
+                                WeatherContract.WeatherEntry.buildWeatherLocation(newSetting));
+                    }
+                    mLocationIds.invalidate();
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changedUris);
         }
         return rowsUpdated;
     }
@@ -321,34 +772,883 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    return upsertWeather(values);
+                }
                 db.beginTransaction();
                 int returnCount = 0;
+                Set<Uri> changedUris = new LinkedHashSet<Uri>();
+                Map<Long, String> locationSettings = new HashMap<Long, String>();
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
+                        int date = getDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            changedUris.add(getWeatherUri(db,
+                                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                                    date, locationSettings));
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChanges(changedUris);
                 return returnCount;
+            case HOURLY:
+                return bulkInsertHourly(values);
+            case SYNC_TIMING:
+                db.beginTransaction();
+                int timingCount = 0;
+                try {
+                    for (ContentValues value : values) {
+                        long _id = db.insert(WeatherContract.SyncTimingEntry.TABLE_NAME, null, value);
+                        if (_id != -1) {
+                            timingCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyChange(uri);
+                return timingCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Runs the whole batch in one transaction, so readers see either none of it or all of it.
+        Nothing is notified until the batch has committed, and then every location it changed
+        is notified once, so a CursorLoader requeries once per batch rather than once per
+        operation, and only if the batch touched what it shows.  The provider's lock is taken
+        before the transaction, like the upserts inside the batch take it, so a batch can't
+        hold the database while it waits for the lock.
+     */
+    @Override
+    public synchronized ContentProviderResult[] applyBatch(
+            ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        mBatchChanges.set(changedUris);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+        publishChanges(changedUris);
+        return results;
+    }
+
+    /*
+        Every write that changed something comes through here, with the most precise uris it
+        can name.  Inside a batch they wait for the batch to commit.
+     */
+    private void notifyChange(Uri uri) {
+        notifyChanges(Collections.singleton(uri));
+    }
+
+    private void notifyChanges(Collection<Uri> uris) {
+        Set<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.addAll(uris);
+        } else {
+            publishChanges(uris);
+        }
+    }
+
+    /*
+        Tells the query cache, the forecast snapshots, the database helper and the observers
+        about committed changes.  The cache drops exactly what changed, but observers are told
+        once per location.
+     */
+    private void publishChanges(Collection<Uri> uris) {
+        if (uris.isEmpty()) {
+            return;
+        }
+        for (Uri uri : uris) {
+            invalidateCache(uri);
+        }
+        invalidateSnapshots(uris);
+        mOpenHelper.onWrite();
+        for (Uri uri : coalesce(uris)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /*
+        Folds changed uris into as few notifications as still leave other locations alone.  A
+        location with more than one changed date is notified once, on weather/<location>, which
+        reaches the observers of each of its dates, and a uri under another one that is notified
+        anyway is dropped.  Query parameters go too, since observers only match on the path.
+     */
+    static Set<Uri> coalesce(Collection<Uri> uris) {
+        Set<Uri> paths = new LinkedHashSet<Uri>();
+        Map<String, Integer> changedDates = new HashMap<String, Integer>();
+        for (Uri uri : uris) {
+            Uri path = uri.buildUpon().clearQuery().build();
+            if (paths.add(path) && sUriMatcher.match(path) == WEATHER_WITH_LOCATION_AND_DATE) {
+                String locationSetting =
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(path);
+                Integer count = changedDates.get(locationSetting);
+                changedDates.put(locationSetting, count == null ? 1 : count + 1);
+            }
+        }
+
+        Set<Uri> folded = new LinkedHashSet<Uri>();
+        for (Uri path : paths) {
+            if (sUriMatcher.match(path) == WEATHER_WITH_LOCATION_AND_DATE) {
+                String locationSetting =
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(path);
+                if (changedDates.get(locationSetting) > 1) {
+                    path = WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+                }
+            }
+            folded.add(path);
+        }
+
+        Set<Uri> notified = new LinkedHashSet<Uri>();
+        for (Uri path : folded) {
+            boolean covered = false;
+            for (Uri other : folded) {
+                if (isAncestor(other, path)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                notified.add(path);
+            }
+        }
+        return notified;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() < segments.size()
+                && segments.subList(0, ancestorSegments.size()).equals(ancestorSegments);
+    }
+
+    /*
+        Drops the cached results and summaries a change could show up in.  The uris the writes
+        notify are already as precise as the writes themselves, so they say what to drop: a
+        date of a location, a whole location, or for anything coarser, or a change to the
+        locations themselves, everything.  A summary snapshot holds all of its location's days,
+        so any change to them drops it.
+     */
+    private void invalidateCache(Uri changedUri) {
+        if (mQueryCache == null) {
+            return;
+        }
+        switch (sUriMatcher.match(changedUri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                mQueryCache.invalidate(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(changedUri),
+                        WeatherContract.WeatherEntry.getDateFromUri(changedUri));
+                mSummaries.invalidate(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(changedUri));
+                break;
+            case WEATHER_WITH_LOCATION:
+                mQueryCache.invalidate(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(changedUri));
+                mSummaries.invalidate(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(changedUri));
+                break;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+            case SYNC_TIMING:
+            case ARCHIVE:
+            case AGGREGATE:
+            case AGGREGATE_WITH_LOCATION:
+            case AGGREGATE_WITH_LOCATION_AND_WINDOW:
+                // Nothing from these tables is cached.
+                break;
+            case MIGRATION:
+                // A backfill may have rewritten any of the cached rows.
+            default:
+                mQueryCache.invalidateAll();
+                mSummaries.invalidateAll();
+                break;
+        }
+    }
+
+    /*
+        Deletes the ForecastSnapshot of each location whose days changed, so the widgets, Muzei,
+        the notification and the watch never read days the database no longer has.  They go to
+        the provider until the sync writes the snapshot again, once it has stored the location's
+        forecast, so a write here never has to read the days back.  A change we can't pin on a
+        location drops every snapshot.
+     */
+    private void invalidateSnapshots(Collection<Uri> uris) {
+        for (Uri uri : uris) {
+            switch (sUriMatcher.match(uri)) {
+                case WEATHER_WITH_LOCATION_AND_DATE:
+                case WEATHER_WITH_LOCATION:
+                    ForecastSnapshot.delete(getContext(),
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                    break;
+                case WEATHER:
+                    ForecastSnapshot.deleteAll(getContext());
+                    return;
+                case MIGRATION:
+                    // A backfill chunk changes how rows are stored, not the days they hold,
+                    // and the snapshots were dropped by the upgrade before it.
+                default:
+                    // Changes to the locations themselves come with the uris of their days.
+                    break;
+            }
+        }
+    }
+
+    /*
+        The change-aware version of bulkInsert, on the same compiled statements as the packed
+        ingest.  A date we don't have yet is inserted, a date we already have is updated if any
+        of its values differ, and a row that matches what is stored isn't touched at all, so its
+        _ID survives and nobody is notified about it.  Each changed date is notified on its own
+        weather/<location>/<date> uri.  Columns that aren't weather values, like _ID, are left
+        out.
+     */
+    private synchronized int upsertWeather(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        compileWeatherStatements(db);
+        List<Uri> changedUris = new ArrayList<Uri>();
+        Map<Long, String> locationSettings = new HashMap<Long, String>();
+        int changedCount = 0;
+
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                int date = getDate(value);
+                bindWeatherValues(mUpdateWeather, value, locationId, date);
+                bindWeatherValues(mInsertWeather, value, locationId, date);
+                if (!executeWeatherUpsert()) {
+                    continue;
+                }
+                changedCount++;
+                changedUris.add(getWeatherUri(db, locationId, date, locationSettings));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        notifyChanges(changedUris);
+        return changedCount;
+    }
+
+    /*
+        Writes a batch of hourly rows in one transaction through a single compiled statement.
+        A slot that is already stored is replaced.  Each location in the batch is notified once,
+        on its hourly/<location> uri.
+     */
+    private synchronized int bulkInsertHourly(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Long> locationIds = new HashSet<Long>();
+        int returnCount = 0;
+
+        db.beginTransaction();
+        SQLiteStatement insert = getInsertHourly(db);
+        try {
+            for (ContentValues value : values) {
+                long locationId = value.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, value.getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME));
+                insert.bindDouble(3, value.getAsDouble(WeatherContract.HourlyEntry.COLUMN_TEMP));
+                insert.bindLong(4, value.getAsLong(WeatherContract.HourlyEntry.COLUMN_HUMIDITY));
+                insert.bindDouble(5,
+                        value.getAsDouble(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED));
+                insert.bindLong(6, value.getAsLong(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID));
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                    locationIds.add(locationId);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        Map<Long, String> locationSettings = new HashMap<Long, String>();
+        for (long locationId : locationIds) {
+            changedUris.add(getHourlyUri(db, locationId, locationSettings));
+        }
+        notifyChanges(changedUris);
+        return returnCount;
+    }
+
+    /*
+        Where the packed batches come in.  A call from inside this process hands over the
+        Bundle as is, so the columns reach the statements without being copied.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_SUMMARY.equals(method)) {
+            return getWeatherSummary(arg,
+                    extras.getInt(WeatherContract.WeatherEntry.COLUMN_DATE));
+        }
+        if (WeatherContract.WeatherEntry.METHOD_INGEST.equals(method)) {
+            return ingestWeather(WeatherBatch.fromBundle(extras));
+        }
+        int count;
+        if (WeatherContract.HourlyEntry.METHOD_INGEST.equals(method)) {
+            count = ingestHourly(HourlyBatch.fromBundle(extras));
+        } else if (WeatherContract.WeatherEntry.METHOD_ARCHIVE.equals(method)) {
+            count = archiveWeather(arg,
+                    extras.getInt(WeatherContract.WeatherEntry.COLUMN_DATE));
+        } else {
+            return super.call(method, arg, extras);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.KEY_COUNT, count);
+        return result;
+    }
+
+    /*
+        Upserts the batch's location, then its days with two compiled statements and primitive
+        bindings: an update that only matches a stored day that differs, then an insert that
+        only adds a day that isn't stored.  Then the hourly slots and the days that have gone by
+        make way, the days into the archive.  Like applyBatch, it is all one transaction and
+        nothing is notified until it has committed, so readers never see the new forecast
+        beside the days it replaces.  Each changed date is notified on its own
+        weather/<location>/<date> uri, as by the upsert.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private synchronized Bundle ingestWeather(WeatherBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        compileWeatherStatements(db);
+        String locationSetting = batch.location.getAsString(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        mBatchChanges.set(changedUris);
+        long locationId;
+        int changedCount = 0;
+        int archivedCount = 0;
+
+        db.beginTransaction();
+        try {
+            locationId = ContentUris.parseId(upsertLocation(db, batch.location));
+            for (int i = 0; i < batch.rowCount; i++) {
+                int date = checkDate(batch.dates[i]);
+                bindWeatherRow(mUpdateWeather, batch, i, locationId, date);
+                bindWeatherRow(mInsertWeather, batch, i, locationId, date);
+                if (!executeWeatherUpsert()) {
+                    continue;
+                }
+                changedCount++;
+                changedUris.add(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, date));
+            }
+            if (batch.hourlyBefore > 0) {
+                delete(WeatherContract.HourlyEntry.CONTENT_URI,
+                        WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND "
+                                + WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                        new String[]{Long.toString(locationId),
+                                Long.toString(batch.hourlyBefore)});
+            }
+            if (batch.archiveBefore > 0) {
+                archivedCount = moveToArchive(db, locationSetting, locationId,
+                        batch.archiveBefore, changedUris);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+        try {
+            if (batch.archiveBefore > 0) {
+                compactArchive(locationSetting, batch.archiveBefore, archivedCount, changedUris);
+            }
+        } finally {
+            publishChanges(changedUris);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.KEY_COUNT, changedCount);
+        result.putLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        return result;
+    }
+
+    /*
+        The summary method.  The location's days are read in once, from the weather table alone
+        since the location id is cached, and every summary after that is a binary search over
+        the snapshot, until a write to the location drops it.
+     */
+    private Bundle getWeatherSummary(String locationSetting, int date) {
+        SummaryCache.Days days = mSummaries.get(locationSetting);
+        if (days == null) {
+            long generation = mSummaries.getGeneration();
+            SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+            long locationId = getLocationId(db, locationSetting);
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    SummaryCache.COLUMNS,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(locationId)},
+                    null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                days = new SummaryCache.Days(cursor);
+            } finally {
+                cursor.close();
+            }
+            mSummaries.put(locationSetting, days, generation);
+        }
+        return days.getSummary(date);
+    }
+
+    /*
+        Moves the days before the cutoff into the archive, folds the oldest archived days into
+        rollups, and works out the aggregates of the windows ending at the cutoff.
+     */
+    private synchronized int archiveWeather(String locationSetting, int cutoff) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long locationId = locationSetting != null ? getLocationId(db, locationSetting) : -1;
+        Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        int moved;
+        db.beginTransaction();
+        try {
+            moved = moveToArchive(db, locationSetting, locationId, cutoff, changedUris);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        compactArchive(locationSetting, cutoff, moved, changedUris);
+        notifyChanges(changedUris);
+        return moved;
+    }
+
+    /*
+        Copies the days before the cutoff into the archive and deletes them here, adding the
+        uris they leave from to the changed ones.  The archive is a database of its own, so it
+        can't share the caller's transaction, but the days are copied before they are deleted,
+        and the archive takes the same day twice without complaint, so a move cut short or
+        rolled back loses nothing and the next one finishes it.  Only called while holding the
+        provider's lock, inside a transaction.
+     */
+    private int moveToArchive(SQLiteDatabase db, String locationSetting, long locationId,
+                              int cutoff, Set<Uri> changedUris) {
+        String selection = WeatherContract.WeatherEntry.COLUMN_DATE + " < ?";
+        String[] selectionArgs = new String[]{Integer.toString(cutoff)};
+        String archiveSelection = selection;
+        String[] archiveSelectionArgs = selectionArgs;
+        if (locationSetting != null) {
+            selection += " AND " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?";
+            selectionArgs = new String[]{Integer.toString(cutoff), Long.toString(locationId)};
+            archiveSelection += " AND " + sLocationSettingSelection;
+            archiveSelectionArgs = new String[]{Integer.toString(cutoff), locationSetting};
+        }
+
+        int moved;
+        Cursor days = sWeatherByLocationSettingQueryBuilder.query(db, WeatherArchive.DAY_COLUMNS,
+                archiveSelection, archiveSelectionArgs, null, null, null);
+        try {
+            moved = mArchive.store(days);
+        } finally {
+            days.close();
+        }
+        if (moved > 0) {
+            changedUris.addAll(getWeatherUris(db, selection, selectionArgs));
+            db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+        }
+        return moved;
+    }
+
+    /*
+        The archive's side of a move, once the days are out of the weather table: folds the
+        oldest archived days into rollups and works out the aggregates of the windows ending at
+        the cutoff.  Only called while holding the provider's lock.
+     */
+    private void compactArchive(String locationSetting, int cutoff, int moved,
+                                Set<Uri> changedUris) {
+        int folded = mArchive.compact(locationSetting, cutoff);
+        mArchive.refreshAggregates(locationSetting, cutoff);
+        if (moved > 0 || folded > 0) {
+            changedUris.add(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        if (folded > 0) {
+            changedUris.add(locationSetting != null
+                    ? WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting)
+                    : WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        // The windows move with the cutoff even when no day did.
+        changedUris.add(locationSetting != null
+                ? WeatherContract.AggregateEntry.buildAggregateLocation(locationSetting)
+                : WeatherContract.AggregateEntry.CONTENT_URI);
+    }
+
+    /*
+        The day of a weather row, read as a long so that a date in seconds or milliseconds,
+        from before dates were Julian days, is turned away rather than cut down to an int that
+        looks like one.
+     */
+    private static int getDate(ContentValues values) {
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (date == null) {
+            throw new IllegalArgumentException("Weather rows need a "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE);
+        }
+        return checkDate(date);
+    }
+
+    private static int checkDate(long date) {
+        if (!WeatherContract.isJulianDay(date)) {
+            throw new IllegalArgumentException("Not a Julian day: " + date);
+        }
+        return (int) date;
+    }
+
+    // Only called while holding the provider's lock.
+    private void compileWeatherStatements(SQLiteDatabase db) {
+        if (mUpdateWeather == null) {
+            mUpdateWeather = db.compileStatement(sUpdateWeatherSql);
+            mInsertWeather = db.compileStatement(sInsertWeatherSql);
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                mChanges = db.compileStatement("SELECT changes()");
+            }
+        }
+    }
+
+    /*
+        The upsert of one day, once both statements are bound to it: the update, then if that
+        matched nothing, the insert.  Only called while holding the provider's lock.
+
+        @return whether the day was inserted or changed
+     */
+    private boolean executeWeatherUpsert() {
+        boolean updated;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            updated = executeUpdateDelete(mUpdateWeather) > 0;
+        } else {
+            mUpdateWeather.execute();
+            updated = mChanges.simpleQueryForLong() > 0;
+        }
+        return updated || mInsertWeather.executeInsert() != -1;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int executeUpdateDelete(SQLiteStatement statement) {
+        return statement.executeUpdateDelete();
+    }
+
+    // Binds in the order of sIngestWeatherColumns.
+    private static void bindWeatherRow(SQLiteStatement statement, WeatherBatch batch, int row,
+                                       long locationId, int date) {
+        statement.bindLong(1, batch.weatherIds[row]);
+        if (batch.shortDescs[row] != null) {
+            statement.bindString(2, batch.shortDescs[row]);
+        } else {
+            statement.bindNull(2);
+        }
+        statement.bindDouble(3, batch.minTemps[row]);
+        statement.bindDouble(4, batch.maxTemps[row]);
+        statement.bindDouble(5, batch.humidities[row]);
+        statement.bindDouble(6, batch.pressures[row]);
+        statement.bindDouble(7, batch.windSpeeds[row]);
+        statement.bindDouble(8, batch.degrees[row]);
+        statement.bindLong(9, locationId);
+        statement.bindLong(10, date);
+    }
+
+    // Binds in the order of sIngestWeatherColumns.  A column the values leave out is null.
+    private static void bindWeatherValues(SQLiteStatement statement, ContentValues values,
+                                          long locationId, int date) {
+        for (int i = 0; i < INGEST_VALUE_COLUMNS; i++) {
+            Object value = values.get(sIngestWeatherColumns[i]);
+            if (value == null) {
+                statement.bindNull(i + 1);
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(i + 1, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(i + 1, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(i + 1, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(i + 1, (byte[]) value);
+            } else {
+                statement.bindString(i + 1, value.toString());
+            }
+        }
+        statement.bindLong(9, locationId);
+        statement.bindLong(10, date);
+    }
+
+    /*
+        The packed version of bulkInsertHourly.
+     */
+    private synchronized int ingestHourly(HourlyBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+
+        db.beginTransaction();
+        SQLiteStatement insert = getInsertHourly(db);
+        try {
+            for (int i = 0; i < batch.rowCount; i++) {
+                insert.bindLong(1, batch.locationId);
+                insert.bindLong(2, batch.times[i]);
+                insert.bindDouble(3, batch.temperatures[i]);
+                insert.bindLong(4, batch.humidities[i]);
+                insert.bindDouble(5, batch.windSpeeds[i]);
+                insert.bindLong(6, batch.weatherIds[i]);
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (returnCount > 0) {
+            notifyChange(getHourlyUri(db, batch.locationId, new HashMap<Long, String>()));
+        }
+        return returnCount;
+    }
+
+    // Only called while holding the provider's lock.
+    private SQLiteStatement getInsertHourly(SQLiteDatabase db) {
+        if (mInsertHourly == null) {
+            mInsertHourly = db.compileStatement(sInsertHourlySql);
+        }
+        return mInsertHourly;
+    }
+
+    /*
+        Adds the location unless there is one with its setting already, and returns its uri
+        either way.  INSERT OR IGNORE settles a new location against the unique setting in one
+        statement, so two syncs storing the same new location at once can't trip over each
+        other.  A location that is already stored, whose id we usually know without reading,
+        gets the rest of the values, since the server may rename the city and a place picked on
+        the map moves it.
+     */
+    private Uri upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        long id = mLocationIds.get(locationSetting);
+        if (id == -1) {
+            long generation = mLocationIds.getGeneration();
+            long insertedId = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME,
+                    null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            id = insertedId;
+            if (id == -1 || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                // The location was there already.  Before Jelly Bean, an ignored insert may
+                // hand back the id of whatever was inserted last instead of -1, so always look.
+                id = queryLocationId(db, locationSetting);
+            }
+            if (id == -1) {
+                throw new android.database.SQLException("Failed to insert row into " +
+                        WeatherContract.LocationEntry.CONTENT_URI);
+            }
+            mLocationIds.put(locationSetting, id, generation);
+            if (id == insertedId) {
+                notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+                return WeatherContract.LocationEntry.buildLocationUri(id);
+            }
+        }
+        if (updateLocation(db, id, values) > 0) {
+            // The joined weather queries show the name and coordinates too.
+            notifyChanges(Arrays.asList(WeatherContract.LocationEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting)));
+        }
+        return WeatherContract.LocationEntry.buildLocationUri(id);
+    }
+
+    /*
+        UPDATE location SET ... WHERE _id = ? AND (city_name IS NOT ? OR ...), with a term for
+        each of the values, so a location that hasn't changed isn't written or notified.
+     */
+    private static int updateLocation(SQLiteDatabase db, long id, ContentValues values) {
+        StringBuilder differs = new StringBuilder();
+        List<String> args = new ArrayList<String>();
+        args.add(Long.toString(id));
+        for (Map.Entry<String, Object> column : values.valueSet()) {
+            if (column.getKey().equals(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)) {
+                continue;
+            }
+            differs.append(differs.length() == 0 ? "" : " OR ").append(column.getKey());
+            if (column.getValue() == null) {
+                differs.append(" IS NOT NULL");
+            } else {
+                // Bound as text, which the column's affinity turns back into its own type.
+                differs.append(" IS NOT ?");
+                args.add(column.getValue().toString());
+            }
+        }
+        if (differs.length() == 0) {
+            return 0;
+        }
+        return db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                WeatherContract.LocationEntry._ID + " = ? AND (" + differs + ")",
+                args.toArray(new String[args.size()]));
+    }
+
+    private long getLocationId(SQLiteDatabase db, String locationSetting) {
+        long id = mLocationIds.get(locationSetting);
+        if (id == -1) {
+            long generation = mLocationIds.getGeneration();
+            id = queryLocationId(db, locationSetting);
+            if (id != -1) {
+                mLocationIds.put(locationSetting, id, generation);
+            }
+        }
+        return id;
+    }
+
+    private static long queryLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Looks up a location's setting, remembering the answer, unknown locations included, so a
+        write that touches many rows of one location only asks once.
+     */
+    private static String getLocationSetting(SQLiteDatabase db, long locationId,
+                                             Map<Long, String> locationSettings) {
+        if (locationSettings.containsKey(locationId)) {
+            return locationSettings.get(locationId);
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null, null, null);
+        try {
+            String locationSetting = cursor.moveToFirst() ? cursor.getString(0) : null;
+            locationSettings.put(locationId, locationSetting);
+            return locationSetting;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        The uri of one day of one location.  A row whose location we can't name can only be
+        notified on the whole table.
+     */
+    private static Uri getWeatherUri(SQLiteDatabase db, Long locationId, Integer date,
+                                     Map<Long, String> locationSettings) {
+        String locationSetting = locationId != null
+                ? getLocationSetting(db, locationId, locationSettings) : null;
+        if (locationSetting == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        return date != null
+                ? WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date)
+                : WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+    }
+
+    private static Uri getHourlyUri(SQLiteDatabase db, long locationId,
+                                    Map<Long, String> locationSettings) {
+        String locationSetting = getLocationSetting(db, locationId, locationSettings);
+        return locationSetting != null
+                ? WeatherContract.HourlyEntry.buildHourlyLocation(locationSetting)
+                : WeatherContract.HourlyEntry.CONTENT_URI;
+    }
+
+    /*
+        The uris of the days a weather selection matches, read before they are changed.
+     */
+    private static Set<Uri> getWeatherUris(SQLiteDatabase db, String selection,
+                                           String[] selectionArgs) {
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        Map<Long, String> locationSettings = new HashMap<Long, String>();
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                uris.add(getWeatherUri(db, cursor.getLong(0), cursor.getInt(1),
+                        locationSettings));
+            }
+        } finally {
+            cursor.close();
+        }
+        return uris;
+    }
+
+    /*
+        The uris of the locations an hourly selection matches.
+     */
+    private static Set<Uri> getHourlyUris(SQLiteDatabase db, String selection,
+                                          String[] selectionArgs) {
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        Map<Long, String> locationSettings = new HashMap<Long, String>();
+        Cursor cursor = db.query(true, WeatherContract.HourlyEntry.TABLE_NAME,
+                new String[]{WeatherContract.HourlyEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                uris.add(getHourlyUri(db, cursor.getLong(0), locationSettings));
+            }
+        } finally {
+            cursor.close();
+        }
+        return uris;
+    }
+
+    /*
+        The uris a location selection matches: the location table, and the weather of each
+        location, which the joined weather queries show.
+     */
+    private static Set<Uri> getLocationUris(SQLiteDatabase db, String selection,
+                                            String[] selectionArgs) {
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        uris.add(WeatherContract.LocationEntry.CONTENT_URI);
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                uris.add(WeatherContract.WeatherEntry.buildWeatherLocation(cursor.getString(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return uris;
+    }
+
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        synchronized (this) {
+            if (mUpdateWeather != null) {
+                mUpdateWeather.close();
+                mInsertWeather.close();
+                mUpdateWeather = null;
+                mInsertWeather = null;
+            }
+            if (mChanges != null) {
+                mChanges.close();
+                mChanges = null;
+            }
+            if (mInsertHourly != null) {
+                mInsertHourly.close();
+                mInsertHourly = null;
+            }
+        }
         mOpenHelper.close();
+        mArchive.close();
         super.shutdown();
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The one day the widgets, Muzei, the notification and the watch show.  It comes from the
+ * location's {@link ForecastSnapshot} if there is one, without the provider at all.  Otherwise,
+ * from Honeycomb on, it comes from the provider's summary method as a Bundle of a few values,
+ * without a cursor or the location join; before that, from a query.
+ */
+public class WeatherSummary {
+    private static final String[] SUMMARY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    // The Julian day, as in WeatherContract.WeatherEntry.COLUMN_DATE.
+    public final int date;
+    public final int weatherId;
+    public final String shortDesc;
+    public final double maxTemp;
+    public final double minTemp;
+
+    WeatherSummary(int date, int weatherId, String shortDesc, double maxTemp, double minTemp) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.shortDesc = shortDesc;
+        this.maxTemp = maxTemp;
+        this.minTemp = minTemp;
+    }
+
+    /**
+     * @param date a Julian day; see WeatherContract.getJulianDay
+     * @return the first day of the location from that one on, or null if there is none
+     */
+    public static WeatherSummary load(Context context, String locationSetting, int date) {
+        WeatherSummary summary = ForecastSnapshot.read(context, locationSetting, date);
+        if (summary != null) {
+            return summary;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return fromProvider(context.getContentResolver(), locationSetting, date);
+        }
+        return fromCursor(context.getContentResolver(), locationSetting, date);
+    }
+
+    /**
+     * @return whether this is the given Julian day, rather than a later one
+     */
+    public boolean isFor(int date) {
+        return this.date == date;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static WeatherSummary fromProvider(ContentResolver resolver, String locationSetting,
+                                       int date) {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherEntry.COLUMN_DATE, date);
+        Bundle summary = resolver.call(WeatherEntry.CONTENT_URI, WeatherEntry.METHOD_SUMMARY,
+                locationSetting, extras);
+        if (summary == null) {
+            return null;
+        }
+        return new WeatherSummary(summary.getInt(WeatherEntry.COLUMN_DATE),
+                summary.getInt(WeatherEntry.COLUMN_WEATHER_ID),
+                summary.getString(WeatherEntry.COLUMN_SHORT_DESC),
+                summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                summary.getDouble(WeatherEntry.COLUMN_MIN_TEMP));
+    }
+
+    static WeatherSummary fromCursor(ContentResolver resolver, String locationSetting,
+                                     int date) {
+        Cursor cursor = resolver.query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, date),
+                SUMMARY_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new WeatherSummary(cursor.getInt(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Random;
+
+/**
+ * A circuit breaker for one weather service endpoint.  After a few requests in a row fail, the
+ * breaker opens and nothing is sent to the endpoint until a jittered, exponentially growing
+ * backoff has passed.  Then a single probe request is let through: if it works the breaker
+ * closes, and if it fails the breaker opens again for longer.  The state lives in shared
+ * preferences, so it survives the process being killed in the middle of an outage.
+ */
+public class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN})
+    public @interface State {}
+
+    // Requests go through as normal.
+    public static final int STATE_CLOSED = 0;
+    // The endpoint is down, so don't send it anything until the retry time.
+    public static final int STATE_OPEN = 1;
+    // The retry time has passed.  One request may go through to find out if it's back.
+    public static final int STATE_HALF_OPEN = 2;
+
+    private static final String PREFS_NAME = "circuit_breakers";
+
+    private static final String KEY_FAILURES = ".failures";
+    private static final String KEY_RETRY_TIME = ".retry_time";
+
+    // Consecutive failed requests that open the breaker.
+    static final int FAILURE_THRESHOLD = 3;
+    // The first backoff after opening, doubled for every further failure, up to the max.
+    static final long BACKOFF_BASE_MILLIS = 5 * 60 * 1000;
+    static final long BACKOFF_MAX_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final Random sJitter = new Random();
+
+    private final SharedPreferences mPrefs;
+    private final String mEndpoint;
+
+    public CircuitBreaker(Context context, String endpoint) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mEndpoint = endpoint;
+    }
+
+    public @State int getState(long now) {
+        if (getFailureCount() < FAILURE_THRESHOLD) {
+            return STATE_CLOSED;
+        }
+        return now < getRetryTime() ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    public int getFailureCount() {
+        return mPrefs.getInt(mEndpoint + KEY_FAILURES, 0);
+    }
+
+    /**
+     * @return when the breaker lets a probe request through, or 0 if it isn't open.
+     */
+    public long getRetryTime() {
+        return mPrefs.getLong(mEndpoint + KEY_RETRY_TIME, 0);
+    }
+
+    /**
+     * Records a request that got an answer from the endpoint.  This should not be called from
+     * the UI thread because it uses commit to write to the shared preferences.
+     */
+    public void recordSuccess() {
+        if (getFailureCount() == 0) {
+            return;
+        }
+        Log.d(LOG_TAG, mEndpoint + " is back, closing");
+        mPrefs.edit()
+                .remove(mEndpoint + KEY_FAILURES)
+                .remove(mEndpoint + KEY_RETRY_TIME)
+                .commit();
+    }
+
+    /**
+     * Records a request the endpoint didn't answer.  This should not be called from the UI
+     * thread because it uses commit to write to the shared preferences.
+     */
+    public void recordFailure(long now) {
+        int failures = getFailureCount() + 1;
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putInt(mEndpoint + KEY_FAILURES, failures);
+        if (failures >= FAILURE_THRESHOLD) {
+            long backoff = computeBackoff(failures - FAILURE_THRESHOLD, sJitter.nextFloat());
+            editor.putLong(mEndpoint + KEY_RETRY_TIME, now + backoff);
+            Log.d(LOG_TAG, mEndpoint + " failed " + failures + " times, open for "
+                    + backoff / 1000 + "s");
+        }
+        editor.commit();
+    }
+
+    /**
+     * @param retries how many times the breaker has reopened since it first opened
+     * @param jitter a random number between 0 and 1
+     * @return the backoff in milliseconds.  Half of it is fixed and half is random ("equal
+     * jitter"), so devices that lost the endpoint at the same moment don't all come back at the
+     * same moment.
+     */
+    static long computeBackoff(int retries, float jitter) {
+        long backoff = Math.min(BACKOFF_BASE_MILLIS << Math.min(retries, 16), BACKOFF_MAX_MILLIS);
+        return backoff / 2 + (long) (backoff / 2 * jitter);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Typed result of parsing a daily forecast response.  Holds the city information and one
+ * {@link Day} per forecast day, in the order the server sent them (the first day is always
+ * the current day).
+ */
+public class Forecast {
+    // The "cod" value of the response.  OWM only sends it as a number on error responses, so
+    // a response without one is treated as OK.
+    public int messageCode = HttpURLConnection.HTTP_OK;
+
+    public String cityName;
+    public double cityLatitude;
+    public double cityLongitude;
+
+    public Day[] days = new Day[14];
+    public int dayCount;
+
+    /**
+     * A single day of forecast, kept as primitives so the ingest path can bind them directly.
+     */
+    public static class Day {
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+
+        public double high;
+        public double low;
+
+        public String description;
+        public int weatherId;
+    }
+
+    Day addDay() {
+        if (dayCount == days.length) {
+            Day[] grown = new Day[days.length * 2];
+            System.arraycopy(days, 0, grown, 0, dayCount);
+            days = grown;
+        }
+        Day day = new Day();
+        days[dayCount++] = day;
+        return day;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the {@link ForecastSink}s for a committed forecast, all at once and off the sync thread.
+ * {@link #dispatch} returns straight away, so a slow sink (say, a notification waiting on its
+ * art) neither makes the sync longer nor keeps the sync adapter busy.  Each sink gets its own
+ * timeout, after which it is interrupted and recorded as timed out.  When every sink is done
+ * or has timed out, their timings go into the sync timing table.
+ *
+ * A sink blocked in something that ignores interrupts keeps its thread past its timeout.  So
+ * each sink has at most one run in flight, keyed by its stage: a dispatch skips a sink whose
+ * last run hasn't returned yet, and the sink catches up with the next dispatch after it has.
+ * That keeps back-to-back syncs from piling up threads behind a stuck sink.
+ */
+class ForecastFanOut {
+    private static final String LOG_TAG = ForecastFanOut.class.getSimpleName();
+
+    // One thread for each of the sinks the sync runs.  With a single run in flight per sink,
+    // a run only waits for a thread if more kinds of sink than this are dispatched.
+    static final int MAX_SINK_THREADS = 4;
+    private static final long SINK_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    // Shared by every dispatch.  Idle threads go away, since sinks only run after a sync.
+    private static final ThreadPoolExecutor sSinkPool = new ThreadPoolExecutor(
+            MAX_SINK_THREADS, MAX_SINK_THREADS, SINK_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    private static final ScheduledExecutorService sWatchdog =
+            Executors.newSingleThreadScheduledExecutor();
+    // The stages of the sinks whose last run hasn't returned.  Guarded by itself.
+    private static final Set<String> sInFlight = new HashSet<String>();
+
+    static {
+        sSinkPool.allowCoreThreadTimeOut(true);
+    }
+
+    private final Context mContext;
+
+    ForecastFanOut(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Starts every sink on the location's forecast and returns without waiting for them.  A
+     * sink still busy with an earlier dispatch is left out.
+     *
+     * @param syncId the sync pass the sinks' timings are recorded under
+     */
+    void dispatch(String locationSetting, long syncId, ForecastSink... sinks) {
+        List<ForecastSink> idle = new ArrayList<ForecastSink>(sinks.length);
+        synchronized (sInFlight) {
+            for (ForecastSink sink : sinks) {
+                if (sInFlight.add(sink.getStage())) {
+                    idle.add(sink);
+                } else {
+                    Log.w(LOG_TAG, sink.getStage() + " is still running, skipping it");
+                }
+            }
+        }
+        if (idle.isEmpty()) {
+            return;
+        }
+        SyncTimingLedger ledger = new SyncTimingLedger(syncId);
+        AtomicInteger remaining = new AtomicInteger(idle.size());
+        for (ForecastSink sink : idle) {
+            SinkRun run = new SinkRun(sink, locationSetting, ledger, remaining);
+            run.watch(sSinkPool.submit(run));
+        }
+    }
+
+    /**
+     * @return whether the sink's last run hasn't returned yet.
+     */
+    static boolean isInFlight(ForecastSink sink) {
+        synchronized (sInFlight) {
+            return sInFlight.contains(sink.getStage());
+        }
+    }
+
+    private class SinkRun implements Runnable {
+        private final ForecastSink mSink;
+        private final String mLocationSetting;
+        private final SyncTimingLedger mLedger;
+        private final AtomicInteger mRemaining;
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+        // Claimed by whichever comes first: the run getting a thread, or its timeout.
+        private final AtomicBoolean mStarted = new AtomicBoolean();
+        private final long mStart = SystemClock.elapsedRealtime();
+
+        SinkRun(ForecastSink sink, String locationSetting, SyncTimingLedger ledger,
+                AtomicInteger remaining) {
+            mSink = sink;
+            mLocationSetting = locationSetting;
+            mLedger = ledger;
+            mRemaining = remaining;
+        }
+
+        @Override
+        public void run() {
+            if (!mStarted.compareAndSet(false, true)) {
+                // Timed out before it got a thread.
+                return;
+            }
+            int outcome = SunshineSyncAdapter.LOCATION_STATUS_OK;
+            try {
+                mSink.deliver(mLocationSetting);
+            } catch (InterruptedException e) {
+                // Timed out, and already recorded as such.
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Error in " + mSink.getStage(), e);
+                outcome = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+            } finally {
+                release();
+            }
+            finish(outcome);
+        }
+
+        void watch(final Future<?> future) {
+            sWatchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (finish(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)) {
+                        Log.w(LOG_TAG, mSink.getStage() + " timed out after "
+                                + mSink.getTimeoutMillis() + "ms");
+                        if (mStarted.compareAndSet(false, true)) {
+                            // It never ran, so nothing else will free the sink.
+                            release();
+                        }
+                        // A sink that ignores the interrupt stays in flight until it returns.
+                        future.cancel(true);
+                    }
+                }
+            }, mSink.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private void release() {
+            synchronized (sInFlight) {
+                sInFlight.remove(mSink.getStage());
+            }
+        }
+
+        /**
+         * Records the sink's time, unless it was already recorded, and flushes the ledger
+         * once this was the last sink of the dispatch.
+         *
+         * @return whether this call did the recording
+         */
+        private boolean finish(@SunshineSyncAdapter.LocationStatus int outcome) {
+            if (!mFinished.compareAndSet(false, true)) {
+                return false;
+            }
+            synchronized (mLedger) {
+                mLedger.record(mLocationSetting, mSink.getStage(),
+                        SystemClock.elapsedRealtime() - mStart, 0, outcome);
+                if (mRemaining.decrementAndGet() == 0) {
+                    mLedger.flush(mContext);
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into a {@link Forecast}, and a three-hourly
+ * forecast response into an {@link HourlyForecast}.
+ *
+ * On Honeycomb and higher the response is pulled straight off the stream with a
+ * {@link JsonReader}, so neither the raw JSON String nor a JSONObject tree is ever built.  Older
+ * devices don't have JsonReader, so they fall back to reading the body and walking a JSONObject.
+ */
+public class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Hourly slots keep their time, temperature and humidity in a "main" object, and the wind
+    // in a "wind" object.
+    private static final String OWM_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_MAIN_TEMPERATURE = "temp";
+    private static final String OWM_WIND = "wind";
+
+    private static final String CHARSET = "UTF-8";
+
+    private ForecastParser() {
+    }
+
+    /**
+     * Parses the response body.  The stream is consumed but not closed.
+     *
+     * @throws IOException if the stream could not be read
+     * @throws JSONException if the body is not a forecast we understand
+     */
+    public static Forecast parse(InputStream inputStream) throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStream(inputStream);
+        }
+        return parseTree(readFully(inputStream));
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Forecast parseStream(InputStream inputStream) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, CHARSET));
+        Forecast forecast = new Forecast();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.messageCode = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader, forecast);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected tokens and malformed numbers as runtime exceptions,
+            // and malformed JSON as an IOException subclass.  They all mean the server sent us
+            // something we can't use, not that the network is down.
+            throw new JSONException(e.getMessage());
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        }
+        validate(forecast);
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Forecast forecast) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDays(JsonReader reader, Forecast forecast) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Forecast.Day day = forecast.addDay();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    day.pressure = reader.nextDouble();
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    day.humidity = (int) reader.nextDouble();
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    day.windSpeed = reader.nextDouble();
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    day.windDirection = reader.nextDouble();
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    readTemperature(reader, day);
+                } else if (OWM_WEATHER.equals(name)) {
+                    readWeather(reader, day);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readTemperature(JsonReader reader, Forecast.Day day) throws IOException {
+        // Temperatures are in a child object called "temp".  Try not to name variables
+        // "temp" when working with temperature.  It confuses everybody.
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                day.high = reader.nextDouble();
+            } else if (OWM_MIN.equals(name)) {
+                day.low = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readWeather(JsonReader reader, Forecast.Day day) throws IOException {
+        // Description is in a child array called "weather", which is 1 element long.
+        // That element also contains a weather code.
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    day.description = reader.nextString();
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    day.weatherId = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Parses an hourly forecast response body.  The stream is consumed but not closed.
+     *
+     * @throws IOException if the stream could not be read
+     * @throws JSONException if the body is not a forecast we understand
+     */
+    public static HourlyForecast parseHourly(InputStream inputStream)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseHourlyStream(inputStream);
+        }
+        return parseHourlyTree(readFully(inputStream));
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static HourlyForecast parseHourlyStream(InputStream inputStream)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, CHARSET));
+        HourlyForecast forecast = new HourlyForecast();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.messageCode = reader.nextInt();
+                } else if (OWM_LIST.equals(name)) {
+                    readSlots(reader, forecast);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        }
+        validate(forecast);
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readSlots(JsonReader reader, HourlyForecast forecast) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int slot = forecast.addSlot();
+            // A slot without a time can't be stored, so it is caught by validate.
+            forecast.times[slot] = -1;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_TIME.equals(name)) {
+                    forecast.times[slot] = reader.nextLong() * 1000;
+                } else if (OWM_MAIN.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String mainName = reader.nextName();
+                        if (OWM_MAIN_TEMPERATURE.equals(mainName)) {
+                            forecast.temperatures[slot] = reader.nextDouble();
+                        } else if (OWM_HUMIDITY.equals(mainName)) {
+                            forecast.humidities[slot] = (int) reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WIND.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WINDSPEED.equals(reader.nextName())) {
+                            forecast.windSpeeds[slot] = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    reader.beginArray();
+                    if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                forecast.weatherIds[slot] = reader.nextInt();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Parses a complete hourly response body by building a JSONObject tree, for devices before
+     * Honeycomb.
+     */
+    static HourlyForecast parseHourlyTree(String forecastJsonStr) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        HourlyForecast forecast = new HourlyForecast();
+
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+        }
+
+        if (forecastJson.has(OWM_LIST)) {
+            JSONArray slotArray = forecastJson.getJSONArray(OWM_LIST);
+            for (int i = 0; i < slotArray.length(); i++) {
+                JSONObject slotForecast = slotArray.getJSONObject(i);
+                int slot = forecast.addSlot();
+
+                forecast.times[slot] = slotForecast.getLong(OWM_TIME) * 1000;
+
+                JSONObject mainObject = slotForecast.getJSONObject(OWM_MAIN);
+                forecast.temperatures[slot] = mainObject.getDouble(OWM_MAIN_TEMPERATURE);
+                forecast.humidities[slot] = mainObject.getInt(OWM_HUMIDITY);
+
+                forecast.windSpeeds[slot] =
+                        slotForecast.getJSONObject(OWM_WIND).getDouble(OWM_WINDSPEED);
+                forecast.weatherIds[slot] = slotForecast.getJSONArray(OWM_WEATHER)
+                        .getJSONObject(0).getInt(OWM_WEATHER_ID);
+            }
+        }
+        validate(forecast);
+        return forecast;
+    }
+
+    /**
+     * Parses a complete response body by building a JSONObject tree.  This is the only option
+     * before Honeycomb.
+     */
+    static Forecast parseTree(String forecastJsonStr) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        Forecast forecast = new Forecast();
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+        }
+
+        if (forecastJson.has(OWM_CITY)) {
+            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+            forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+            forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+            forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        }
+
+        if (forecastJson.has(OWM_LIST)) {
+            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+            for (int i = 0; i < weatherArray.length(); i++) {
+                // Get the JSON object representing the day
+                JSONObject dayForecast = weatherArray.getJSONObject(i);
+                Forecast.Day day = forecast.addDay();
+
+                day.pressure = dayForecast.getDouble(OWM_PRESSURE);
+                day.humidity = dayForecast.getInt(OWM_HUMIDITY);
+                day.windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+                day.windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+                JSONObject weatherObject =
+                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+                day.description = weatherObject.getString(OWM_DESCRIPTION);
+                day.weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+                day.high = temperatureObject.getDouble(OWM_MAX);
+                day.low = temperatureObject.getDouble(OWM_MIN);
+            }
+        }
+        validate(forecast);
+        return forecast;
+    }
+
+    /**
+     * Error responses carry only a message code.  Anything that claims to be OK has to carry the
+     * city and a description for every day, since those columns are NOT NULL.
+     */
+    private static void validate(Forecast forecast) throws JSONException {
+        if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+            return;
+        }
+        if (forecast.cityName == null) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        for (int i = 0; i < forecast.dayCount; i++) {
+            if (forecast.days[i].description == null) {
+                throw new JSONException("No value for " + OWM_DESCRIPTION + " on day " + i);
+            }
+        }
+    }
+
+    private static void validate(HourlyForecast forecast) throws JSONException {
+        if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+            return;
+        }
+        for (int i = 0; i < forecast.slotCount; i++) {
+            if (forecast.times[i] < 0) {
+                throw new JSONException("No value for " + OWM_TIME + " in slot " + i);
+            }
+        }
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        Reader reader = new InputStreamReader(inputStream, CHARSET);
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, read);
+        }
+        return builder.toString();
+    }
+}
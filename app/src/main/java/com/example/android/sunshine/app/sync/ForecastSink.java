@@ -0,0 +1,26 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Something downstream of the database that shows the preferred location's forecast, and has
+ * to be told when it changes: the widgets, Muzei, the notification, the watch.  Sinks are run
+ * by {@link ForecastFanOut} once the sync has committed, each on its own thread, so they read
+ * what they need from the database rather than from the sync.
+ */
+interface ForecastSink {
+
+    /**
+     * @return the SyncTimingEntry STAGE_ this sink's time is recorded under.
+     */
+    String getStage();
+
+    /**
+     * @return how long the sink may take before it is interrupted and given up on.
+     */
+    long getTimeoutMillis();
+
+    /**
+     * Shows the location's current forecast.  Called on a fan-out thread, never the sync
+     * thread.  Implementations should give up when interrupted.
+     */
+    void deliver(String locationSetting) throws Exception;
+}
@@ -0,0 +1,54 @@
+package com.example.android.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Typed result of parsing an hourly (for OWM, three-hourly) forecast response.  There are a lot
+ * more slots than days, so instead of an object per slot the values are packed into one
+ * primitive array per column, in the order the server sent them.
+ */
+public class HourlyForecast {
+    // The "cod" value of the response.  A response without one is treated as OK.
+    public int messageCode = HttpURLConnection.HTTP_OK;
+
+    // Start of each slot, in milliseconds since the epoch.
+    public long[] times = new long[40];
+    public double[] temperatures = new double[40];
+    public int[] humidities = new int[40];
+    public double[] windSpeeds = new double[40];
+    public int[] weatherIds = new int[40];
+    public int slotCount;
+
+    /**
+     * Makes room for one more slot and returns its index.  The caller fills in the columns.
+     */
+    int addSlot() {
+        if (slotCount == times.length) {
+            int capacity = times.length * 2;
+            times = grow(times, capacity);
+            temperatures = grow(temperatures, capacity);
+            humidities = grow(humidities, capacity);
+            windSpeeds = grow(windSpeeds, capacity);
+            weatherIds = grow(weatherIds, capacity);
+        }
+        return slotCount++;
+    }
+
+    private long[] grow(long[] column, int capacity) {
+        long[] grown = new long[capacity];
+        System.arraycopy(column, 0, grown, 0, slotCount);
+        return grown;
+    }
+
+    private double[] grow(double[] column, int capacity) {
+        double[] grown = new double[capacity];
+        System.arraycopy(column, 0, grown, 0, slotCount);
+        return grown;
+    }
+
+    private int[] grow(int[] column, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(column, 0, grown, 0, slotCount);
+        return grown;
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+
+/**
+ * Downloads and parses the daily or the hourly forecast for a single location.  These run on
+ * the sync pass's worker pool, so they never write to the database: everything they learn goes
+ * back to the sync thread in a {@link Result}, and the sync thread does all of the writing.
+ */
+class LocationSyncTask implements Callable<LocationSyncTask.Result> {
+    private static final String LOG_TAG = LocationSyncTask.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({OUTCOME_FETCHED, OUTCOME_NOT_MODIFIED, OUTCOME_UNCHANGED, OUTCOME_FAILED})
+    public @interface Outcome {}
+
+    // A new forecast was downloaded and needs to be stored.
+    static final int OUTCOME_FETCHED = 0;
+    // The server answered a conditional request with 304.
+    static final int OUTCOME_NOT_MODIFIED = 1;
+    // The body hashed the same as the last one we stored.
+    static final int OUTCOME_UNCHANGED = 2;
+    // Nothing to store; the status says why.
+    static final int OUTCOME_FAILED = 3;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({KIND_DAILY, KIND_HOURLY})
+    public @interface Kind {}
+
+    static final int KIND_DAILY = 0;
+    static final int KIND_HOURLY = 1;
+
+    // Validators for hourly responses are stored under the location with this prefix, so they
+    // don't clash with the daily ones.
+    private static final String HOURLY_VALIDATOR_PREFIX = "hourly:";
+
+    static class Result {
+        final String locationSetting;
+        @Kind final int kind;
+        @Outcome int outcome = OUTCOME_FAILED;
+        @SunshineSyncAdapter.LocationStatus int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+        Forecast forecast;
+        HourlyForecast hourlyForecast;
+        // The key the validators below should be recorded under.
+        final String validatorKey;
+        String contentHash;
+        String eTag;
+        long lastModified;
+
+        long wireBytes;
+        long decodedBytes;
+
+        // Where the time went, for the sync timing ledger.  Parsing works on the body as it
+        // arrives, so parseMillis leaves out the time it spent waiting for the network, which
+        // is downloadMillis.  connectMillis stays -1 if the request never got a response.
+        long connectMillis = -1;
+        long firstByteMillis;
+        long downloadMillis;
+        long parseMillis;
+
+        Result(String locationSetting, @Kind int kind, String validatorKey) {
+            this.locationSetting = locationSetting;
+            this.kind = kind;
+            this.validatorKey = validatorKey;
+        }
+    }
+
+    // How many days of forecast we ask for.
+    static final int FORECAST_DAYS = 14;
+
+    private final WeatherSource mWeatherSource;
+    private final SyncHttpClient mHttpClient;
+    private final SyncValidatorStore mValidatorStore;
+    private final String mLocationSetting;
+    // Either both are set, and the query is by coordinates, or neither is and we query by the
+    // location setting itself.
+    private final String mLatitude;
+    private final String mLongitude;
+    private final boolean mHaveCurrentData;
+    @Kind private final int mKind;
+
+    /**
+     * @param haveCurrentData whether the database still holds today's forecast for this
+     *                        location.  If it doesn't, we ignore the stored validators.
+     */
+    LocationSyncTask(WeatherSource weatherSource, SyncHttpClient httpClient,
+                     SyncValidatorStore validatorStore, String locationSetting, String latitude,
+                     String longitude, boolean haveCurrentData) {
+        this(weatherSource, httpClient, validatorStore, locationSetting, latitude, longitude,
+                haveCurrentData, KIND_DAILY);
+    }
+
+    LocationSyncTask(WeatherSource weatherSource, SyncHttpClient httpClient,
+                     SyncValidatorStore validatorStore, String locationSetting, String latitude,
+                     String longitude, boolean haveCurrentData, @Kind int kind) {
+        mWeatherSource = weatherSource;
+        mHttpClient = httpClient;
+        mValidatorStore = validatorStore;
+        mLocationSetting = locationSetting;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mHaveCurrentData = haveCurrentData;
+        mKind = kind;
+    }
+
+    String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    @Kind int getKind() {
+        return mKind;
+    }
+
+    /**
+     * @return a task that fetches the other kind of forecast for the same location.
+     */
+    LocationSyncTask withKind(@Kind int kind, boolean haveCurrentData) {
+        return new LocationSyncTask(mWeatherSource, mHttpClient, mValidatorStore, mLocationSetting,
+                mLatitude, mLongitude, haveCurrentData, kind);
+    }
+
+    @Override
+    public Result call() {
+        String validatorKey = mKind == KIND_HOURLY
+                ? HOURLY_VALIDATOR_PREFIX + mLocationSetting : mLocationSetting;
+        Result result = new Result(mLocationSetting, mKind, validatorKey);
+        SyncHttpClient.Response response = null;
+
+        try {
+            URL url;
+            if (mKind == KIND_HOURLY) {
+                url = mWeatherSource.buildHourlyForecastUrl(mLocationSetting, mLatitude,
+                        mLongitude);
+            } else {
+                url = mWeatherSource.buildForecastUrl(mLocationSetting, mLatitude, mLongitude,
+                        FORECAST_DAYS);
+            }
+
+            // Create the request to the weather service, and open the connection
+            if (mHaveCurrentData) {
+                response = mHttpClient.get(url, mValidatorStore.getETag(validatorKey),
+                        mValidatorStore.getLastModified(validatorKey));
+            } else {
+                response = mHttpClient.get(url, null, 0);
+            }
+
+            result.connectMillis = response.getConnectMillis();
+            result.firstByteMillis = response.getFirstByteMillis();
+
+            if (mHaveCurrentData
+                    && response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                result.outcome = OUTCOME_NOT_MODIFIED;
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return result;
+            }
+
+            // Parse the forecast straight off the decoded stream, hashing the body as it goes
+            // by.  An empty stream shows up as an IOException, the same as any other failed read.
+            long parseStart = SystemClock.elapsedRealtime();
+            MessageDigest digest = SyncValidatorStore.newDigest();
+            DigestInputStream digestStream = new DigestInputStream(response.getBody(), digest);
+            Forecast forecast = null;
+            HourlyForecast hourlyForecast = null;
+            int messageCode;
+            if (mKind == KIND_HOURLY) {
+                hourlyForecast = mWeatherSource.parseHourlyForecast(digestStream);
+                messageCode = hourlyForecast.messageCode;
+            } else {
+                forecast = mWeatherSource.parseForecast(digestStream);
+                messageCode = forecast.messageCode;
+            }
+            // The parser stops at the end of the JSON object, so hash whatever trails it.
+            byte[] skipBuffer = new byte[256];
+            while (digestStream.read(skipBuffer) != -1) {
+                // keep reading
+            }
+            result.contentHash = SyncValidatorStore.toHex(digest.digest());
+            result.wireBytes = response.getWireBytes();
+            result.decodedBytes = response.getDecodedBytes();
+            result.downloadMillis = response.getDownloadMillis();
+            result.parseMillis = SystemClock.elapsedRealtime() - parseStart
+                    - result.downloadMillis;
+
+            // do we have an error?
+            switch (messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    return result;
+                default:
+                    // Only a server error means the service is down.  Anything else is an
+                    // answer about this request.
+                    result.status = messageCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                            ? SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN
+                            : SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+                    return result;
+            }
+
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+            if (mHaveCurrentData
+                    && result.contentHash.equals(mValidatorStore.getContentHash(validatorKey))) {
+                // Same bytes as last time, so the database and everything downstream of it
+                // is already showing this forecast.
+                result.outcome = OUTCOME_UNCHANGED;
+                return result;
+            }
+
+            result.outcome = OUTCOME_FETCHED;
+            result.forecast = forecast;
+            result.hourlyForecast = hourlyForecast;
+            result.eTag = response.getETag();
+            result.lastModified = response.getLastModified();
+        } catch (SyncHttpClient.ResponseTooLargeException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            // Whatever the server is sending us, it isn't a forecast.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+
+/**
+ * Asks the Muzei art source to publish the new forecast's art.
+ */
+class MuzeiSink implements ForecastSink {
+    // Starting the service only has to be queued.
+    private static final long TIMEOUT_MILLIS = 5 * 1000;
+
+    private final Context mContext;
+
+    MuzeiSink(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public String getStage() {
+        return WeatherContract.SyncTimingEntry.STAGE_UPDATE_MUZEI;
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+        return TIMEOUT_MILLIS;
+    }
+
+    @Override
+    public void deliver(String locationSetting) {
+        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
+        // Muzei background on lower API level devices
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            mContext.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setClass(mContext, WeatherMuzeiSource.class));
+        }
+    }
+}
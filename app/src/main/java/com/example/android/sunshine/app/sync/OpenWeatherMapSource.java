@@ -0,0 +1,105 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * The OpenWeatherMap daily and three-hourly forecast APIs.  Responses are read by
+ * {@link ForecastParser}, which holds the OWM field names.
+ */
+public class OpenWeatherMapSource implements WeatherSource {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    // The three-hourly forecast lives next to the daily one, and always covers five days.
+    private static final String DAILY_PATH = "/forecast/daily";
+    private static final String HOURLY_PATH = "/forecast";
+    private static final String QUERY_PARAM = "q";
+    private static final String LAT_PARAM = "lat";
+    private static final String LON_PARAM = "lon";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private final String mBaseUrl;
+    private final String mHourlyBaseUrl;
+
+    public OpenWeatherMapSource() {
+        this(FORECAST_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl where to send requests instead of the live API, e.g. a stand-in server
+     */
+    public OpenWeatherMapSource(String baseUrl) {
+        mBaseUrl = baseUrl;
+        mHourlyBaseUrl = baseUrl.replace(DAILY_PATH, HOURLY_PATH);
+    }
+
+    @Override
+    public String getEndpoint() {
+        return Uri.parse(mBaseUrl).getAuthority();
+    }
+
+    @Override
+    public URL buildForecastUrl(String locationSetting, String latitude, String longitude,
+                                int days) throws IOException {
+        Uri builtUri = buildLocationUri(mBaseUrl, locationSetting, latitude, longitude)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(days))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+
+    @Override
+    public URL buildHourlyForecastUrl(String locationSetting, String latitude, String longitude)
+            throws IOException {
+        Uri builtUri = buildLocationUri(mHourlyBaseUrl, locationSetting, latitude, longitude)
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+
+    private static Uri.Builder buildLocationUri(String baseUrl, String locationSetting,
+                                                String latitude, String longitude) {
+        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon();
+
+        // Locations picked with the Place Picker, and every location we have already resolved
+        // once, are queried by coordinates.  The weather service may not understand the address
+        // string, and the user could end up with no weather! The horror!
+        if (latitude != null && longitude != null) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, latitude)
+                    .appendQueryParameter(LON_PARAM, longitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationSetting);
+        }
+
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS);
+    }
+
+    @Override
+    public Forecast parseForecast(InputStream body) throws IOException, JSONException {
+        return ForecastParser.parse(body);
+    }
+
+    @Override
+    public HourlyForecast parseHourlyForecast(InputStream body) throws IOException, JSONException {
+        return ForecastParser.parseHourly(body);
+    }
+}
@@ -2,86 +2,58 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
+import android.annotation.TargetApi;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
+import android.database.SQLException;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.HourlyBatch;
+import com.example.android.sunshine.app.data.WeatherBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.UUID;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
-    // 60 seconds (1 minute) * 180 = 3 hours
-    public static final int SYNC_INTERVAL = 60 * 180;
-    public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // Hourly slots are kept until this long after they start, so the current one is still
+    // there to show.
+    private static final long HOURLY_SLOT_MILLIS = 1000 * 60 * 60 * 3;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,
@@ -94,528 +66,704 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
-    private static final String WEATHER_INFO_PATH = "/weather-info";
-    private static final String KEY_UUID = "uuid";
-    private static final String KEY_HIGH = "high";
-    private static final String KEY_LOW = "low";
-    private static final String KEY_WEATHER_ID = "weatherId";
+    // Sync extra for a pass that only serves what is already in the database, without touching
+    // the network.
+    static final String SYNC_EXTRAS_FROM_DATABASE = "from_database";
+
+    // How many locations are downloaded at once during a sync pass.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+
+    private static final String[] SYNC_LOCATION_PROJECTION = new String[] {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
 
-    private GoogleApiClient mGoogleApiClient;
+    // these indices must match the projection
+    private static final int INDEX_SYNC_LOCATION_ID = 0;
+    private static final int INDEX_SYNC_LOCATION_SETTING = 1;
+    private static final int INDEX_SYNC_COORD_LAT = 2;
+    private static final int INDEX_SYNC_COORD_LONG = 3;
+
+    private final SyncValidatorStore mValidatorStore;
+    private final SyncStatusStore mStatusStore;
+    private final SyncScheduler mScheduler;
+    private final SyncHttpClient mHttpClient = new SyncHttpClient();
+    private final WeatherSource mWeatherSource;
+    private final CircuitBreaker mCircuitBreaker;
+    private volatile ExecutorService mFetchPool;
+    // The timings of the pass in progress.  Only touched on the sync thread.
+    private SyncTimingLedger mLedger;
+    // Location setting -> row id of every location the pass knows about, so storing a
+    // location's forecasts doesn't have to look it up.  Only touched on the sync thread.
+    private final Map<String, Long> mLocationIds = new HashMap<String, Long>();
+    // Everything downstream of the database, run after each pass.
+    private final ForecastFanOut mFanOut;
+    private final ForecastSink mWidgetSink;
+    private final ForecastSink mMuzeiSink;
+    private final ForecastSink mNotificationSink;
+    private final ForecastSink mWearSink;
+    private final WearOutbox mWearOutbox;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
-        super(context, autoInitialize);
+        this(context, autoInitialize, new OpenWeatherMapSource());
+    }
 
-        if (mGoogleApiClient == null) {
-            mGoogleApiClient = new GoogleApiClient.Builder(context)
-                    .addApi(Wearable.API)
-                    .build();
-        }
+    /**
+     * @param weatherSource where forecasts come from.  Tests and benchmarks point this at a
+     *                      stand-in server instead of the live API.
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource weatherSource) {
+        super(context, autoInitialize);
+        mWeatherSource = weatherSource;
+        mCircuitBreaker = new CircuitBreaker(context, weatherSource.getEndpoint());
+        mValidatorStore = new SyncValidatorStore(context);
+        mStatusStore = new SyncStatusStore(context);
+        mScheduler = new SyncScheduler(context);
+
+        mFanOut = new ForecastFanOut(context);
+        mWidgetSink = new WidgetSink(context);
+        mMuzeiSink = new MuzeiSink(context);
+        mNotificationSink = new WeatherNotificationSink(context);
+        mWearSink = new WearSink(context);
+        mWearOutbox = new WearOutbox(context);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
+        String preferredLocation = Utility.getPreferredLocation(context);
+        // If the watch asked for the weather it may have nothing to show, so whatever it gets
+        // next goes out urgently, even if it is what it was last sent.
+        boolean wearAsked = SyncCoalescer.takeWearWaiting();
+        if (wearAsked) {
+            mWearOutbox.markRequested();
+        }
+        boolean wearUpdated = false;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
+            if (extras.getBoolean(SYNC_EXTRAS_FROM_DATABASE, false)) {
+                Log.d(LOG_TAG, "Sync Complete. Answered from the database");
             } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
-
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+                wearUpdated = syncLocations(context, preferredLocation,
+                        extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false));
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            // Anyone asking from here on needs a pass of their own.
+            SyncCoalescer.onSyncFinished();
+        }
+
+        // The watch asked for the weather, but this pass didn't send it anything new, or it
+        // asked while the pass was running, possibly after the pass had sent it something.
+        boolean wearAskedDuringPass = SyncCoalescer.takeWearWaiting();
+        if (wearAskedDuringPass) {
+            mWearOutbox.markRequested();
+        }
+        if (wearAskedDuringPass || (wearAsked && !wearUpdated)) {
+            mFanOut.dispatch(preferredLocation, System.currentTimeMillis(), mWearSink);
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Fetches and stores every location that is due.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return whether the preferred location's forecast was stored, which also sends it to
+     * the watch
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    private boolean syncLocations(Context context, String preferredLocation, boolean manualSync) {
+        long now = System.currentTimeMillis();
+        mLedger = new SyncTimingLedger(now);
+        try {
+            return syncLocations(context, preferredLocation, manualSync, now);
+        } finally {
+            mLedger.flush(context);
+            mLedger = null;
+        }
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    private boolean syncLocations(Context context, String preferredLocation, boolean manualSync,
+                                  long now) {
+        long passStart = SystemClock.elapsedRealtime();
+
+        List<LocationSyncTask> tasks = buildSyncTasks(context, preferredLocation, manualSync, now);
+        boolean probing = false;
+        switch (mCircuitBreaker.getState(now)) {
+            case CircuitBreaker.STATE_OPEN:
+                // The weather service is down.  Leave it alone until the retry time.
+                Log.d(LOG_TAG, "Weather service is down, next retry at "
+                        + mCircuitBreaker.getRetryTime());
+                tasks.clear();
+                break;
+            case CircuitBreaker.STATE_HALF_OPEN:
+                // Probe with a single request, for the location the user sees if we can.
+                if (tasks.size() > 1) {
+                    LocationSyncTask probe = tasks.get(0);
+                    for (LocationSyncTask task : tasks) {
+                        if (task.getLocationSetting().equals(preferredLocation)) {
+                            probe = task;
+                        }
+                    }
+                    tasks = Collections.singletonList(probe);
+                }
+                probing = true;
+                break;
+            case CircuitBreaker.STATE_CLOSED:
+                break;
+        }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+        boolean fetchingPreferred = false;
+        LocationSyncTask hourlyTask = null;
+        for (LocationSyncTask task : tasks) {
+            if (task.getLocationSetting().equals(preferredLocation)) {
+                fetchingPreferred = true;
+                // Only the location the user is looking at gets the hourly forecast.  It is a
+                // separate request on the same pool, so it doesn't make the pass any longer.
+                // A probe is a single request, so it goes without.
+                if (!probing) {
+                    hourlyTask = task.withKind(LocationSyncTask.KIND_HOURLY,
+                            hasCurrentHourly(context, preferredLocation, now));
                 }
             }
+        }
+        SyncCoalescer.onSyncStarted(fetchingPreferred ? preferredLocation : null);
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        if (tasks.isEmpty()) {
+            Log.d(LOG_TAG, "Sync Complete. Nothing is due for a retry");
+            mScheduler.reschedule(false);
+            return false;
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+        // Downloads run in parallel, so a pass over N locations takes about as long as the
+        // slowest of them.
+        ExecutorService fetchPool =
+                Executors.newFixedThreadPool(Math.min(tasks.size(), MAX_PARALLEL_FETCHES));
+        mFetchPool = fetchPool;
+        CompletionService<LocationSyncTask.Result> completionService =
+                new ExecutorCompletionService<LocationSyncTask.Result>(fetchPool);
+        for (LocationSyncTask task : tasks) {
+            completionService.submit(task);
+        }
+        int submitted = tasks.size();
+        if (hourlyTask != null) {
+            completionService.submit(hourlyTask);
+            submitted++;
+        }
+        LocationSyncTask.Result hourlyResult = null;
+
+        int storedLocations = 0;
+        long wireBytes = 0;
+        boolean preferredStored = false;
+        boolean preferredChanged = false;
+        // For the scheduler: how much of each successfully synced forecast was new.
+        float changeFractionSum = 0;
+        int syncedLocations = 0;
+        try {
+            // The sync thread is the single writer for the pass: results are stored one at a
+            // time, in the order the downloads finish.
+            for (int i = 0; i < submitted; i++) {
+                LocationSyncTask.Result result;
+                try {
+                    result = completionService.take().get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error ", e);
+                    continue;
+                }
+                boolean preferred = result.locationSetting.equals(preferredLocation);
+                mLedger.recordFetch(result);
+                wireBytes += result.wireBytes;
+                recordServerResponse(result.status);
+
+                if (result.kind == LocationSyncTask.KIND_HOURLY) {
+                    // Stored once the pass is over, when the daily forecast has made sure the
+                    // location is in the database.  The location's status is the daily one's.
+                    hourlyResult = result;
+                    Log.d(LOG_TAG, "Synced hourly " + result.locationSetting + ": outcome "
+                            + result.outcome + ", status " + result.status + ", "
+                            + result.wireBytes + " bytes on the wire");
+                    continue;
+                }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+                int changedDays = -1;
+                if (result.outcome == LocationSyncTask.OUTCOME_FETCHED) {
+                    changedDays = storeForecast(result.forecast, result.locationSetting);
+                    if (changedDays < 0) {
+                        // Nothing was written.  Without validators the forecast is fetched
+                        // again next time.
+                        result.status = LOCATION_STATUS_UNKNOWN;
+                    } else {
+                        refreshSnapshot(context, result.locationSetting);
+                    }
+                } else if (result.outcome == LocationSyncTask.OUTCOME_NOT_MODIFIED
+                        || result.outcome == LocationSyncTask.OUTCOME_UNCHANGED) {
+                    // Nothing to store, but the snapshot may be missing or of an older version.
+                    refreshSnapshot(context, result.locationSetting);
+                }
+                if (changedDays >= 0) {
+                    mValidatorStore.recordIngest(result.validatorKey, result.eTag,
+                            result.lastModified, result.contentHash);
+                    storedLocations++;
+                    preferredStored |= preferred;
+                    // A new body can still carry the same numbers, in which case there is
+                    // nothing new to show anyone.
+                    preferredChanged |= preferred && changedDays > 0;
+                    if (result.forecast.dayCount > 0) {
+                        changeFractionSum += (float) changedDays / result.forecast.dayCount;
+                    }
+                }
+                if (result.status == LOCATION_STATUS_OK) {
+                    syncedLocations++;
+                }
+                Log.d(LOG_TAG, "Synced " + result.locationSetting + ": outcome " + result.outcome
+                        + ", status " + result.status + ", " + result.wireBytes
+                        + " bytes on the wire, " + result.decodedBytes + " bytes decoded");
 
-                double high;
-                double low;
+                mStatusStore.recordResult(result.locationSetting, result.status, now);
+                if (preferred) {
+                    setLocationStatus(context, result.status);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(LOG_TAG, "Sync cancelled");
+            Thread.currentThread().interrupt();
+        } finally {
+            fetchPool.shutdownNow();
+            mFetchPool = null;
+        }
 
-                String description;
-                int weatherId;
+        if (hourlyResult != null && hourlyResult.outcome == LocationSyncTask.OUTCOME_FETCHED) {
+            storeHourlyForecast(context, hourlyResult);
+        }
+        // Widgets, Muzei, the notification and the watch only ever show the preferred
+        // location.  They read it back from the database, now that everything is written, and
+        // run on their own threads, so none of them hold up the end of the pass.
+        if (preferredChanged) {
+            mFanOut.dispatch(preferredLocation, now, mWidgetSink, mMuzeiSink, mNotificationSink,
+                    mWearSink);
+        } else if (preferredStored) {
+            // Nothing new to show, but the watch still hears that the forecast is current.
+            mFanOut.dispatch(preferredLocation, now, mWearSink);
+        }
+        mLedger.record(null, WeatherContract.SyncTimingEntry.STAGE_SYNC,
+                SystemClock.elapsedRealtime() - passStart, wireBytes, LOCATION_STATUS_OK);
+        Log.d(LOG_TAG, "Sync Complete. " + storedLocations + " of " + tasks.size()
+                + " locations stored");
+
+        // A pass where everything failed says nothing about how much the forecast moves.
+        if (syncedLocations > 0) {
+            mScheduler.recordSync(changeFractionSum / syncedLocations);
+        }
+        mScheduler.reschedule(false);
+        return preferredStored;
+    }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+    /**
+     * Feeds the circuit breaker with whether the weather service answered.  Only a request that
+     * got no answer, or a server error, counts against it.  An answer we couldn't use is about
+     * the one location asked for, so it is left to that location's retry time in the status
+     * store, and a bad location stored on the device can't shut out all the others.
+     */
+    private void recordServerResponse(@LocationStatus int status) {
+        switch (status) {
+            case LOCATION_STATUS_SERVER_DOWN:
+                mCircuitBreaker.recordFailure(System.currentTimeMillis());
+                break;
+            case LOCATION_STATUS_OK:
+            case LOCATION_STATUS_INVALID:
+                mCircuitBreaker.recordSuccess();
+                break;
+            case LOCATION_STATUS_SERVER_INVALID:
+            case LOCATION_STATUS_UNKNOWN:
+                break;
+        }
+    }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+    @Override
+    public void onSyncCanceled() {
+        super.onSyncCanceled();
+        ExecutorService fetchPool = mFetchPool;
+        if (fetchPool != null) {
+            fetchPool.shutdownNow();
+        }
+    }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+    /**
+     * Builds a task for every location in the database, plus the preferred location if it isn't
+     * there yet.  Locations that failed recently are left alone until their retry time, unless
+     * the user asked for this sync and it's the location they are looking at.
+     */
+    private List<LocationSyncTask> buildSyncTasks(Context context, String preferredLocation,
+                                                  boolean manualSync, long now) {
+        List<LocationSyncTask> tasks = new ArrayList<LocationSyncTask>();
+        Set<Long> locationsWithCurrentForecast = getLocationsWithCurrentForecast(context, now);
+        boolean havePreferred = false;
+        // The ids are learned again each pass, so a location deleted or re-added in between
+        // can't leave a stale one behind.
+        mLocationIds.clear();
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, SYNC_LOCATION_PROJECTION,
+                null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                String locationSetting = cursor.getString(INDEX_SYNC_LOCATION_SETTING);
+                mLocationIds.put(locationSetting, cursor.getLong(INDEX_SYNC_LOCATION_ID));
+                boolean haveCurrentData = locationsWithCurrentForecast.contains(
+                        cursor.getLong(INDEX_SYNC_LOCATION_ID));
+                if (locationSetting.equals(preferredLocation)) {
+                    havePreferred = true;
+                    if (manualSync || isDueForSync(locationSetting, now)) {
+                        tasks.add(buildPreferredSyncTask(context, preferredLocation,
+                                haveCurrentData));
+                    }
+                } else if (isDueForSync(locationSetting, now)) {
+                    // Every other location was resolved by the server at least once, so use the
+                    // coordinates it gave us.
+                    tasks.add(new LocationSyncTask(mWeatherSource, mHttpClient, mValidatorStore,
+                            locationSetting,
+                            String.valueOf(cursor.getDouble(INDEX_SYNC_COORD_LAT)),
+                            String.valueOf(cursor.getDouble(INDEX_SYNC_COORD_LONG)),
+                            haveCurrentData));
+                }
+            }
+            cursor.close();
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        if (!havePreferred) {
+            tasks.add(buildPreferredSyncTask(context, preferredLocation, false));
+        }
+        return tasks;
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    private LocationSyncTask buildPreferredSyncTask(Context context, String preferredLocation,
+                                                    boolean haveCurrentData) {
+        // We no longer need just the location String, but also potentially the latitude and
+        // longitude, in case we are syncing based on a new Place Picker API result.
+        String latitude = null;
+        String longitude = null;
+        if (Utility.isLocationLatLonAvailable(context)) {
+            latitude = String.valueOf(Utility.getLocationLatitude(context));
+            longitude = String.valueOf(Utility.getLocationLongitude(context));
+        }
+        return new LocationSyncTask(mWeatherSource, mHttpClient, mValidatorStore,
+                preferredLocation, latitude, longitude, haveCurrentData);
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    private boolean isDueForSync(String locationSetting, long now) {
+        return now >= mStatusStore.getNextRetryTime(locationSetting);
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * @return the ids of the locations that have a forecast for today in the database.  We
+     * only trust the validators we stored for a location if the database still has its data.
+     */
+    private Set<Long> getLocationsWithCurrentForecast(Context context, long now) {
+        Set<Long> locationIds = new HashSet<Long>();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Integer.toString(WeatherContract.getJulianDay(now))},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+            cursor.close();
+        }
+        return locationIds;
+    }
 
-                cVVector.add(weatherValues);
+    /**
+     * Take a parsed forecast and store it in the database.  The location, the forecast and the
+     * clearing out of the hourly slots and days that have gone by are written in one
+     * transaction, so readers never see part of the new forecast, and are told about it once.
+     * Only called from the sync thread.
+     *
+     * @return the number of days whose forecast was new or different, or -1 if the forecast
+     * couldn't be stored
+     */
+    private int storeForecast(Forecast forecast, String locationSetting) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                forecast.cityLongitude);
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that and count the days on from
+        // today's Julian day, which is how dates are stored.
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = WeatherContract.getJulianDay(System.currentTimeMillis());
+        int[] dates = new int[forecast.dayCount];
+        for (int i = 0; i < forecast.dayCount; i++) {
+            dates[i] = julianStartDay + i;
+        }
+        int today = julianStartDay;
+        // Hourly slots that have gone by.
+        long hourlyBefore = System.currentTimeMillis() - HOURLY_SLOT_MILLIS;
+        boolean packed = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
 
-                if ( cVVector.size() > 0 ) {
-                    // only send the weather for today
-                    if (i == 0) {
-                        notifyWear(high, low, weatherId);
-                    }
+        long start = SystemClock.elapsedRealtime();
+        long locationId;
+        int changedDays;
+        try {
+            if (packed) {
+                WeatherBatch batch = createWeatherBatch(forecast, locationValues, dates);
+                // Days that have gone by move to the archive.
+                batch.archiveBefore = today;
+                batch.hourlyBefore = hourlyBefore;
+                Bundle result = ingestWeather(getContext(), batch);
+                locationId = result.getLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                changedDays = result.getInt(WeatherContract.KEY_COUNT);
+            } else {
+                ContentProviderResult[] results = getContext().getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, createForecastOperations(
+                                forecast, locationValues, dates, today, hourlyBefore));
+                // The upsert hands back the location's uri whether it added the location or
+                // not.
+                locationId = ContentUris.parseId(results[0].uri);
+                changedDays = 0;
+                for (int i = 1; i <= forecast.dayCount; i++) {
+                    changedDays += results[i].count;
                 }
             }
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            Log.e(LOG_TAG, "Error storing the forecast for " + locationSetting, e);
+            return -1;
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-            }
-
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        mLocationIds.put(locationSetting, locationId);
+        mLedger.record(locationSetting, WeatherContract.SyncTimingEntry.STAGE_DB_WRITE,
+                SystemClock.elapsedRealtime() - start, changedDays, LOCATION_STATUS_OK);
+        return changedDays;
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Packs the days into one primitive array per column, for the provider's compiled
+     * statements.
+     */
+    private static WeatherBatch createWeatherBatch(Forecast forecast, ContentValues location,
+                                                   int[] dates) {
+        WeatherBatch batch = new WeatherBatch(location, forecast.dayCount);
+        for (int i = 0; i < forecast.dayCount; i++) {
+            Forecast.Day day = forecast.days[i];
+            int row = batch.addRow();
+            batch.dates[row] = dates[i];
+            batch.humidities[row] = day.humidity;
+            batch.pressures[row] = day.pressure;
+            batch.windSpeeds[row] = day.windSpeed;
+            batch.degrees[row] = day.windDirection;
+            batch.maxTemps[row] = day.high;
+            batch.minTemps[row] = day.low;
+            batch.shortDescs[row] = day.description;
+            batch.weatherIds[row] = day.weatherId;
         }
+        return batch;
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bundle ingestWeather(Context context, WeatherBatch batch) {
+        Bundle result = context.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_INGEST, null, batch.toBundle());
+        if (result == null) {
+            throw new SQLException("No result storing the forecast");
+        }
+        return result;
     }
 
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+    /**
+     * Before Honeycomb there are no provider methods, so the location, the days and the
+     * pruning of the hourly slots and days gone by go in as one batch of operations.  Each day
+     * is upserted on its own, touching only what changed.
+     */
+    private static ArrayList<ContentProviderOperation> createForecastOperations(
+            Forecast forecast, ContentValues location, int[] dates, int today,
+            long hourlyBefore) {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(forecast.dayCount + 3);
+
+        // The location goes first, so the days can refer back to its id.
+        operations.add(ContentProviderOperation
+                .newInsert(WeatherContract.LocationEntry.buildLocationUpsertUri())
+                .withValues(location)
+                .build());
+
+        for (int i = 0; i < forecast.dayCount; i++) {
+            Forecast.Day day = forecast.days[i];
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dates[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+            operations.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
         }
+
+        // Without a provider method to archive them, delete the days that have gone by so we
+        // don't build up an endless history.
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{null, Integer.toString(today)})
+                .withSelectionBackReference(0, 0)
+                .build());
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.HourlyEntry.CONTENT_URI)
+                .withSelection(WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND "
+                                + WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                        new String[]{null, Long.toString(hourlyBefore)})
+                .withSelectionBackReference(0, 0)
+                .build());
+        return operations;
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
-            }
+    /**
+     * Writes the location's {@link ForecastSnapshot} from the database if it is missing or of
+     * an older version.  Whenever the location's days change the provider deletes it, so after
+     * storing a forecast this writes it once, with all of the new days.
+     */
+    private void refreshSnapshot(Context context, String locationSetting) {
+        if (ForecastSnapshot.isCurrent(context, locationSetting)) {
+            return;
+        }
+        long generation = ForecastSnapshot.getGeneration();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                ForecastSnapshot.COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        try {
+            ForecastSnapshot.rewrite(context, locationSetting, cursor, generation);
+        } finally {
+            cursor.close();
         }
     }
 
-    private void notifyWear(double high, double low, int weatherId) {
-
-        if (mGoogleApiClient == null) {
+    /**
+     * Take a parsed hourly forecast and store it in the database, in one bulk write.  Only
+     * called from the sync thread, after the location's daily forecast was stored.
+     */
+    private void storeHourlyForecast(Context context, LocationSyncTask.Result result) {
+        long start = SystemClock.elapsedRealtime();
+        long locationId = getLocationId(context, result.locationSetting);
+        if (locationId == -1) {
+            // The daily forecast failed, so the slots have nothing to hang off.  Leave the
+            // validators alone so they are fetched again next time.
             return;
         }
 
-        mGoogleApiClient.connect();
+        HourlyForecast forecast = result.hourlyForecast;
+        int inserted;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            inserted = ingestHourly(context, new HourlyBatch(locationId, forecast.slotCount,
+                    forecast.times, forecast.temperatures, forecast.humidities,
+                    forecast.windSpeeds, forecast.weatherIds));
+        } else {
+            inserted = bulkInsertHourly(context, locationId, forecast);
+        }
+        mValidatorStore.recordIngest(result.validatorKey, result.eTag, result.lastModified,
+                result.contentHash);
+        mLedger.record(result.locationSetting, WeatherContract.SyncTimingEntry.STAGE_HOURLY_WRITE,
+                SystemClock.elapsedRealtime() - start, inserted, LOCATION_STATUS_OK);
+    }
 
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_INFO_PATH);
-        putDataMapRequest.getDataMap().putString(KEY_UUID, UUID.randomUUID().toString());
-        putDataMapRequest.getDataMap().putString(KEY_HIGH, Utility.formatTemperature(getContext(), high));
-        putDataMapRequest.getDataMap().putString(KEY_LOW, Utility.formatTemperature(getContext(), low));
-        putDataMapRequest.getDataMap().putInt(KEY_WEATHER_ID, weatherId);
-        PutDataRequest request = putDataMapRequest.asPutDataRequest().setUrgent();
+    /**
+     * Hands the slots to the provider still packed, so there is no ContentValues per slot.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int ingestHourly(Context context, HourlyBatch batch) {
+        Bundle count = context.getContentResolver().call(WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.HourlyEntry.METHOD_INGEST, null, batch.toBundle());
+        return count != null ? count.getInt(WeatherContract.KEY_COUNT) : 0;
+    }
 
-        Log.d(LOG_TAG, "High:" + high + ", Low:" + low + ", Condition ID: " + weatherId);
+    private int bulkInsertHourly(Context context, long locationId, HourlyForecast forecast) {
+        ContentValues[] cvArray = new ContentValues[forecast.slotCount];
+        for (int i = 0; i < forecast.slotCount; i++) {
+            ContentValues hourlyValues = new ContentValues(6);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TIME, forecast.times[i]);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP, forecast.temperatures[i]);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, forecast.humidities[i]);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, forecast.windSpeeds[i]);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, forecast.weatherIds[i]);
+            cvArray[i] = hourlyValues;
+        }
 
-        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(DataApi.DataItemResult dataItemResult) {
-                        if (!dataItemResult.getStatus().isSuccess()) {
-                            Log.d(LOG_TAG, "Failed to send weather data");
-                        } else {
-                            Log.d(LOG_TAG, "Successfully sent weather data");
-                        }
-                    }
-                });
+        if (cvArray.length == 0) {
+            return 0;
+        }
+        return context.getContentResolver().bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                cvArray);
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the location's row id, or -1 if it isn't in the database.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
+    private long getLocationId(Context context, String locationSetting) {
+        Long knownId = mLocationIds.get(locationSetting);
+        if (knownId != null) {
+            return knownId;
+        }
+        Cursor cursor = context.getContentResolver().query(
                 WeatherContract.LocationEntry.CONTENT_URI,
                 new String[]{WeatherContract.LocationEntry._ID},
                 WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
                 new String[]{locationSetting},
                 null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+        long locationId = -1;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                locationId = cursor.getLong(0);
+            }
+            cursor.close();
         }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
         return locationId;
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * @return whether the database still has hourly slots for the location from now on.  Like
+     * the daily forecast, the stored validators are only trusted if it does.
+     */
+    private boolean hasCurrentHourly(Context context, String locationSetting, long now) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithRange(locationSetting, now,
+                        Long.MAX_VALUE, 1),
+                new String[]{WeatherContract.HourlyEntry.COLUMN_TIME},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean haveCurrent = cursor.moveToFirst();
+        cursor.close();
+        return haveCurrent;
+    }
+
+    /**
+     * Helper method to schedule the sync adapter periodic execution.  The interval is worked out
+     * by {@link SyncScheduler}, which calls this whenever it changes.
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
@@ -638,9 +786,48 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, SyncCoalescer.TRIGGER_OTHER);
+    }
+
+    /**
+     * Asks for an immediate sync of the preferred location, unless a sync for it is already
+     * running or queued, or it was synced recently enough to answer from the database.
+     * @param context The context used to access the account service
+     * @param trigger What is asking, for the coalescing counts
+     */
+    public static void syncImmediately(Context context, @SyncCoalescer.Trigger int trigger) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        switch (SyncCoalescer.request(context, locationSetting, trigger,
+                System.currentTimeMillis())) {
+            case SyncCoalescer.DECISION_SYNC:
+                requestManualSync(context, false);
+                break;
+            case SyncCoalescer.DECISION_FRESH:
+            case SyncCoalescer.DECISION_BACKING_OFF:
+                // The watch still has to be sent what we have.
+                if (trigger == SyncCoalescer.TRIGGER_WEAR) {
+                    requestManualSync(context, true);
+                }
+                break;
+            case SyncCoalescer.DECISION_ATTACHED:
+                break;
+        }
+    }
+
+    /**
+     * @return the circuit breaker for the weather service the sync adapter uses.
+     */
+    public static CircuitBreaker getCircuitBreaker(Context context) {
+        return new CircuitBreaker(context, new OpenWeatherMapSource().getEndpoint());
+    }
+
+    private static void requestManualSync(Context context, boolean fromDatabase) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        if (fromDatabase) {
+            bundle.putBoolean(SYNC_EXTRAS_FROM_DATABASE, true);
+        }
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -688,7 +875,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        new SyncScheduler(context).reschedule(true);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
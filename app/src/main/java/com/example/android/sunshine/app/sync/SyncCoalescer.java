@@ -0,0 +1,150 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Decides whether a request for an immediate sync actually needs one.  Watch requests, location
+ * changes and the place picker tend to arrive in bursts, and each used to queue another full,
+ * expedited sync.  Now a request for the location a sync is already fetching (or about to)
+ * rides along with that sync, and a request for a location synced within the freshness window
+ * is answered from the database, as is any request while the weather service's circuit breaker
+ * is open.  How many syncs each trigger saved is kept, per trigger.
+ *
+ * The sync adapter runs in the app's process, so the in-flight state is simply static.
+ */
+public class SyncCoalescer {
+    private static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({TRIGGER_OTHER, TRIGGER_WEAR, TRIGGER_LOCATION_CHANGED, TRIGGER_PLACE_PICKED})
+    public @interface Trigger {}
+
+    public static final int TRIGGER_OTHER = 0;
+    public static final int TRIGGER_WEAR = 1;
+    public static final int TRIGGER_LOCATION_CHANGED = 2;
+    public static final int TRIGGER_PLACE_PICKED = 3;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({DECISION_SYNC, DECISION_ATTACHED, DECISION_FRESH, DECISION_BACKING_OFF})
+    public @interface Decision {}
+
+    // A new sync has to be requested.
+    public static final int DECISION_SYNC = 0;
+    // A sync for the same location is already running or queued.
+    public static final int DECISION_ATTACHED = 1;
+    // The location was synced recently enough that the database answers the request.
+    public static final int DECISION_FRESH = 2;
+    // The weather service is down and its circuit breaker is open, so asking again won't help.
+    public static final int DECISION_BACKING_OFF = 3;
+
+    // A location synced this recently doesn't need the network again.
+    static final long FRESHNESS_WINDOW_MILLIS = 10 * 60 * 1000;
+    // An expedited sync starts within seconds.  If ours hasn't after this long, it was lost
+    // (the process may have died), so the next request asks again.
+    static final long PENDING_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    private static final String PREFS_NAME = "sync_coalescing";
+    private static final String KEY_REQUESTED = "requested.";
+    private static final String KEY_SAVED = "saved.";
+
+    private static final Object sLock = new Object();
+    private static String sPendingLocation;
+    private static long sPendingSince;
+    private static String sInFlightLocation;
+    private static boolean sWearWaiting;
+
+    private SyncCoalescer() {
+    }
+
+    /**
+     * Records a request for the location and decides what to do about it.  This is safe to call
+     * from the UI thread.
+     */
+    public static @Decision int request(Context context, String locationSetting,
+                                        @Trigger int trigger, long now) {
+        int decision;
+        synchronized (sLock) {
+            if (trigger == TRIGGER_WEAR) {
+                // Whatever happens, the watch gets today's weather at the end of the next pass.
+                sWearWaiting = true;
+            }
+            if (locationSetting.equals(sInFlightLocation)
+                    || (locationSetting.equals(sPendingLocation)
+                    && now - sPendingSince < PENDING_TIMEOUT_MILLIS)) {
+                decision = DECISION_ATTACHED;
+            } else if (now - new SyncStatusStore(context).getLastSuccessTime(locationSetting)
+                    < FRESHNESS_WINDOW_MILLIS) {
+                decision = DECISION_FRESH;
+            } else if (SunshineSyncAdapter.getCircuitBreaker(context).getState(now)
+                    == CircuitBreaker.STATE_OPEN) {
+                decision = DECISION_BACKING_OFF;
+            } else {
+                decision = DECISION_SYNC;
+                sPendingLocation = locationSetting;
+                sPendingSince = now;
+            }
+        }
+
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putInt(KEY_REQUESTED + trigger, prefs.getInt(KEY_REQUESTED + trigger, 0) + 1);
+        if (decision != DECISION_SYNC) {
+            int saved = prefs.getInt(KEY_SAVED + trigger, 0) + 1;
+            editor.putInt(KEY_SAVED + trigger, saved);
+            Log.d(LOG_TAG, "Sync for trigger " + trigger + " not needed (decision " + decision
+                    + "), " + saved + " saved so far");
+        }
+        editor.apply();
+        return decision;
+    }
+
+    /**
+     * Called by the sync adapter when a pass starts.
+     *
+     * @param locationSetting the preferred location if this pass fetches it, otherwise null
+     */
+    static void onSyncStarted(String locationSetting) {
+        synchronized (sLock) {
+            sInFlightLocation = locationSetting;
+            if (locationSetting != null && locationSetting.equals(sPendingLocation)) {
+                sPendingLocation = null;
+            }
+        }
+    }
+
+    static void onSyncFinished() {
+        synchronized (sLock) {
+            sInFlightLocation = null;
+        }
+    }
+
+    /**
+     * @return whether the watch asked for the weather since the last time this was called.
+     */
+    static boolean takeWearWaiting() {
+        synchronized (sLock) {
+            boolean wearWaiting = sWearWaiting;
+            sWearWaiting = false;
+            return wearWaiting;
+        }
+    }
+
+    public static int getRequestCount(Context context, @Trigger int trigger) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(KEY_REQUESTED + trigger, 0);
+    }
+
+    /**
+     * @return how many requests from the trigger were served without a sync of their own.
+     */
+    public static int getSavedCount(Context context, @Trigger int trigger) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(KEY_SAVED + trigger, 0);
+    }
+}
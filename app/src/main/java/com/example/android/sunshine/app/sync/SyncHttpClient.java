@@ -0,0 +1,265 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The small amount of HTTP the sync adapter needs: a conditional, gzip-encoded GET with a
+ * deadline on every stage and a cap on how much we are willing to read.
+ *
+ * We set Accept-Encoding ourselves so that we can count what actually came over the wire.  That
+ * turns off HttpURLConnection's transparent decompression, so gzip bodies are decoded here.
+ */
+public class SyncHttpClient {
+    // Time allowed to open the connection, and to wait for any single read (including the
+    // first byte of the response).
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+    // Time allowed for the whole body, from the first byte to the last.
+    static final long DOWNLOAD_DEADLINE_MILLIS = 30 * 1000;
+    // A 14 day forecast is a few kilobytes decoded.  Anything this size is not a forecast.
+    static final long MAX_RESPONSE_BYTES = 512 * 1024;
+
+    private static final String ENCODING_GZIP = "gzip";
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final long mDownloadDeadlineMillis;
+    private final long mMaxResponseBytes;
+
+    public SyncHttpClient() {
+        this(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, DOWNLOAD_DEADLINE_MILLIS,
+                MAX_RESPONSE_BYTES);
+    }
+
+    public SyncHttpClient(int connectTimeoutMillis, int readTimeoutMillis,
+                          long downloadDeadlineMillis, long maxResponseBytes) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mDownloadDeadlineMillis = downloadDeadlineMillis;
+        mMaxResponseBytes = maxResponseBytes;
+    }
+
+    /**
+     * Thrown when the body goes over the size cap, either on the wire or once decoded.
+     */
+    public static class ResponseTooLargeException extends IOException {
+        public ResponseTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Issues a GET for the url.  The caller must close the returned response.
+     *
+     * @param eTag sent as If-None-Match, if not null
+     * @param ifModifiedSince sent as If-Modified-Since, if greater than 0
+     */
+    public Response get(URL url, String eTag, long ifModifiedSince) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            urlConnection.setRequestProperty("Accept-Encoding", ENCODING_GZIP);
+            if (eTag != null) {
+                urlConnection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (ifModifiedSince > 0) {
+                urlConnection.setIfModifiedSince(ifModifiedSince);
+            }
+            long connectStart = SystemClock.elapsedRealtime();
+            urlConnection.connect();
+            long connected = SystemClock.elapsedRealtime();
+
+            // Blocks until the status line arrives, so it is bounded by the read timeout.
+            int responseCode = urlConnection.getResponseCode();
+            return new Response(urlConnection, responseCode, connected - connectStart,
+                    SystemClock.elapsedRealtime() - connected);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * An open response.  The body is decoded, bounded and counted as it is read.
+     */
+    public class Response {
+        private final HttpURLConnection mConnection;
+        private final int mResponseCode;
+        private final long mConnectMillis;
+        private final long mFirstByteMillis;
+        private CountingInputStream mWireStream;
+        private CountingInputStream mDecodedStream;
+
+        Response(HttpURLConnection connection, int responseCode, long connectMillis,
+                 long firstByteMillis) {
+            mConnection = connection;
+            mResponseCode = responseCode;
+            mConnectMillis = connectMillis;
+            mFirstByteMillis = firstByteMillis;
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * @return how long opening the connection took.
+         */
+        public long getConnectMillis() {
+            return mConnectMillis;
+        }
+
+        /**
+         * @return how long it took from sending the request to the status line arriving.
+         */
+        public long getFirstByteMillis() {
+            return mFirstByteMillis;
+        }
+
+        public String getETag() {
+            return mConnection.getHeaderField("ETag");
+        }
+
+        public long getLastModified() {
+            return mConnection.getLastModified();
+        }
+
+        /**
+         * @return the decoded body.  Like HttpURLConnection.getInputStream, this throws for
+         * error responses.
+         */
+        public InputStream getBody() throws IOException {
+            if (mDecodedStream == null) {
+                long deadline = SystemClock.elapsedRealtime() + mDownloadDeadlineMillis;
+                mWireStream = new CountingInputStream(mConnection.getInputStream(),
+                        mMaxResponseBytes, deadline);
+                InputStream decoded = mWireStream;
+                if (ENCODING_GZIP.equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    decoded = new GZIPInputStream(mWireStream);
+                }
+                mDecodedStream = new CountingInputStream(decoded, mMaxResponseBytes, deadline);
+            }
+            return mDecodedStream;
+        }
+
+        /**
+         * @return the number of body bytes that came over the network so far.
+         */
+        public long getWireBytes() {
+            return mWireStream == null ? 0 : mWireStream.getCount();
+        }
+
+        /**
+         * @return the number of body bytes handed to the caller so far.
+         */
+        public long getDecodedBytes() {
+            return mDecodedStream == null ? 0 : mDecodedStream.getCount();
+        }
+
+        /**
+         * @return how long reads of the body spent waiting on the network so far.  The body is
+         * parsed as it arrives, so this is the part of reading it that parsing can't account for.
+         */
+        public long getDownloadMillis() {
+            return mWireStream == null ? 0 : mWireStream.getReadMillis();
+        }
+
+        public void close() {
+            if (mDecodedStream != null) {
+                try {
+                    mDecodedStream.close();
+                } catch (IOException e) {
+                    // We're done with it either way.
+                }
+            }
+            mConnection.disconnect();
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, and the time spent reading them, and fails once there
+     * are too many of them or the deadline has passed.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private final long mLimit;
+        private final long mDeadline;
+        private long mCount;
+        private long mReadMillis;
+
+        CountingInputStream(InputStream in, long limit, long deadline) {
+            super(in);
+            mLimit = limit;
+            mDeadline = deadline;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getReadMillis() {
+            return mReadMillis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkDeadline();
+            long start = SystemClock.elapsedRealtime();
+            int b = super.read();
+            mReadMillis += SystemClock.elapsedRealtime() - start;
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            checkDeadline();
+            long start = SystemClock.elapsedRealtime();
+            int read = super.read(buffer, offset, length);
+            mReadMillis += SystemClock.elapsedRealtime() - start;
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            checkDeadline();
+            long start = SystemClock.elapsedRealtime();
+            long skipped = super.skip(byteCount);
+            mReadMillis += SystemClock.elapsedRealtime() - start;
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long bytes) throws IOException {
+            mCount += bytes;
+            if (mCount > mLimit) {
+                throw new ResponseTooLargeException("Response is larger than " + mLimit + " bytes");
+            }
+        }
+
+        private void checkDeadline() throws IOException {
+            if (SystemClock.elapsedRealtime() > mDeadline) {
+                throw new SocketTimeoutException("Response was not downloaded in time");
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Calendar;
+
+/**
+ * Decides how often the periodic sync runs.  Instead of a fixed three hours, the interval
+ * follows how much recent syncs actually changed, how long it has been since anyone looked at
+ * the weather (in the app, a widget or on the watch), whether the device is charging on an
+ * unmetered network, and the time of day.  The sync adapter asks for a new schedule after every
+ * pass; the periodic sync is only re-registered when its period actually moves.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({READER_APP, READER_WIDGET, READER_WEAR})
+    public @interface Reader {}
+
+    public static final int READER_APP = 0;
+    public static final int READER_WIDGET = 1;
+    public static final int READER_WEAR = 2;
+
+    private static final String PREFS_NAME = "sync_schedule";
+
+    private static final String KEY_CHANGE_RATE = "change_rate";
+    private static final String KEY_LAST_READ = "last_read.";
+    private static final String KEY_INTERVAL = "interval";
+
+    // Intervals are in seconds, like the ones ContentResolver takes.
+    // 60 seconds (1 minute) * 180 = 3 hours
+    static final long BASE_INTERVAL = 60 * 180;
+    static final long MIN_INTERVAL = 60 * 60;
+    static final long MAX_INTERVAL = 60 * 60 * 12;
+
+    // How much the latest pass counts towards the running change rate.
+    static final float CHANGE_RATE_WEIGHT = 0.3f;
+    // Above this, the forecast is moving and is worth checking more often.
+    static final float VOLATILE_CHANGE_RATE = 0.5f;
+    // Below this, syncs are mostly finding what we already have.
+    static final float STABLE_CHANGE_RATE = 0.1f;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Nobody is likely to look between these hours, so we don't wake the radio for them.
+    static final int NIGHT_START_HOUR = 23;
+    static final int NIGHT_END_HOUR = 6;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    public SyncScheduler(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Notes that someone looked at the weather.  This is safe to call from the UI thread.
+     */
+    public static void recordRead(Context context, @Reader int reader) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putLong(KEY_LAST_READ + reader, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * @return the last time anyone looked at the weather, or 0 if nobody ever has.
+     */
+    public long getLastReadTime() {
+        long lastRead = 0;
+        for (int reader = READER_APP; reader <= READER_WEAR; reader++) {
+            lastRead = Math.max(lastRead, mPrefs.getLong(KEY_LAST_READ + reader, 0));
+        }
+        return lastRead;
+    }
+
+    /**
+     * @return a running average, between 0 and 1, of how much of the forecast each recent
+     * sync changed.
+     */
+    public float getChangeRate() {
+        // Until we know better, assume the forecast moves about as much as the base interval
+        // was chosen for.
+        return mPrefs.getFloat(KEY_CHANGE_RATE, (VOLATILE_CHANGE_RATE + STABLE_CHANGE_RATE) / 2);
+    }
+
+    /**
+     * @return the period of the periodic sync currently registered, in seconds.
+     */
+    public long getInterval() {
+        return mPrefs.getLong(KEY_INTERVAL, BASE_INTERVAL);
+    }
+
+    /**
+     * Folds the outcome of a sync pass into the change rate.  This should not be called from
+     * the UI thread because it uses commit to write to the shared preferences.
+     *
+     * @param changeFraction how much of the forecast the pass changed, between 0 and 1
+     */
+    public void recordSync(float changeFraction) {
+        float changeRate = getChangeRate() * (1 - CHANGE_RATE_WEIGHT)
+                + changeFraction * CHANGE_RATE_WEIGHT;
+        mPrefs.edit().putFloat(KEY_CHANGE_RATE, changeRate).commit();
+    }
+
+    /**
+     * Works out the interval from the current signals and registers it as the periodic sync,
+     * if it differs from the one already registered.  This should not be called from the UI
+     * thread because it uses commit to write to the shared preferences.
+     *
+     * @param force register the periodic sync even if the interval hasn't changed
+     */
+    public void reschedule(boolean force) {
+        long lastRead = getLastReadTime();
+        long sinceLastRead = lastRead == 0 ? Long.MAX_VALUE
+                : System.currentTimeMillis() - lastRead;
+        long interval = computeSyncInterval(getChangeRate(), sinceLastRead,
+                isChargingOnUnmeteredNetwork());
+        long period = computePeriod(interval, Calendar.getInstance().get(Calendar.HOUR_OF_DAY));
+
+        if (!force && period == getInterval()) {
+            return;
+        }
+        Log.d(LOG_TAG, "Periodic sync every " + period / 60 + " minutes");
+        SunshineSyncAdapter.configurePeriodicSync(mContext, (int) period, (int) (interval / 3));
+        mPrefs.edit().putLong(KEY_INTERVAL, period).commit();
+    }
+
+    /**
+     * @param changeRate the running change rate, between 0 and 1
+     * @param sinceLastRead milliseconds since anyone looked at the weather
+     * @param cheapRadio whether the device is charging on an unmetered network
+     * @return the sync interval in seconds
+     */
+    static long computeSyncInterval(float changeRate, long sinceLastRead, boolean cheapRadio) {
+        long interval = BASE_INTERVAL;
+
+        if (changeRate >= VOLATILE_CHANGE_RATE) {
+            interval /= 2;
+        } else if (changeRate < STABLE_CHANGE_RATE) {
+            interval *= 2;
+        }
+
+        // Data nobody is looking at doesn't need to be fresh.
+        if (sinceLastRead > 7 * DAY_IN_MILLIS) {
+            interval *= 4;
+        } else if (sinceLastRead > DAY_IN_MILLIS) {
+            interval *= 2;
+        }
+
+        if (cheapRadio) {
+            interval = interval * 2 / 3;
+        }
+
+        return Math.max(MIN_INTERVAL, Math.min(interval, MAX_INTERVAL));
+    }
+
+    /**
+     * Overnight, the next sync waits for the morning rather than syncing data that will be stale
+     * again by the time anyone sees it.  Only that one sync waits: the period is stretched so its
+     * flex window opens in the morning, and the sync in the morning registers the interval again.
+     *
+     * @param interval the sync interval in seconds, whose flex is a third of it
+     * @param hourOfDay the local hour, 0 to 23
+     * @return the period to register, in seconds
+     */
+    static long computePeriod(long interval, int hourOfDay) {
+        if (hourOfDay < NIGHT_START_HOUR && hourOfDay >= NIGHT_END_HOUR) {
+            return interval;
+        }
+        long flex = interval / 3;
+        long untilMorning = ((NIGHT_END_HOUR - hourOfDay + 24) % 24) * 60 * 60;
+        return interval - flex >= untilMorning ? interval : untilMorning + flex;
+    }
+
+    private boolean isChargingOnUnmeteredNetwork() {
+        // Passing a null receiver just reads the sticky battery broadcast.
+        Intent battery = mContext.getApplicationContext()
+                .registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            return false;
+        }
+
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        if (activeNetwork == null || !activeNetwork.isConnected()) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !isActiveNetworkMetered(cm);
+        }
+        return activeNetwork.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static boolean isActiveNetworkMetered(ConnectivityManager cm) {
+        return cm.isActiveNetworkMetered();
+    }
+}
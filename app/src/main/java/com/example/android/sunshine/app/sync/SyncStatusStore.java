@@ -0,0 +1,89 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Keeps the outcome of the last sync attempt for every location, along with how many attempts
+ * in a row have failed, how many of those got an answer we couldn't use, and when the location
+ * is next worth retrying.  Unusable answers are kept here rather than held against the weather
+ * service's circuit breaker, since they are most likely down to the location.  The preferred
+ * location's status is also mirrored into the default shared preferences by the sync adapter,
+ * since that is what the UI listens to.
+ */
+public class SyncStatusStore {
+    private static final String PREFS_NAME = "sync_status";
+
+    private static final String KEY_STATUS = ".status";
+    private static final String KEY_FAILURES = ".failures";
+    private static final String KEY_INVALID_RESPONSES = ".invalid_responses";
+    private static final String KEY_NEXT_RETRY = ".next_retry";
+    private static final String KEY_LAST_SUCCESS = ".last_success";
+
+    // The first retry after a failure waits this long, and every further failure doubles it.
+    static final long RETRY_BASE_MILLIS = 15 * 60 * 1000;
+    static final long RETRY_MAX_MILLIS = 12 * 60 * 60 * 1000;
+
+    private final SharedPreferences mPrefs;
+
+    public SyncStatusStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @SuppressWarnings("ResourceType")
+    public @SunshineSyncAdapter.LocationStatus int getStatus(String locationSetting) {
+        return mPrefs.getInt(locationSetting + KEY_STATUS,
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    public int getFailureCount(String locationSetting) {
+        return mPrefs.getInt(locationSetting + KEY_FAILURES, 0);
+    }
+
+    /**
+     * @return the time in milliseconds before which a scheduled sync should leave this location
+     * alone, or 0 if it can be synced right away.
+     */
+    public long getNextRetryTime(String locationSetting) {
+        return mPrefs.getLong(locationSetting + KEY_NEXT_RETRY, 0);
+    }
+
+    /**
+     * @return how many attempts in a row got an answer from the weather service that wasn't a
+     * forecast we could use.
+     */
+    public int getInvalidResponseCount(String locationSetting) {
+        return mPrefs.getInt(locationSetting + KEY_INVALID_RESPONSES, 0);
+    }
+
+    public long getLastSuccessTime(String locationSetting) {
+        return mPrefs.getLong(locationSetting + KEY_LAST_SUCCESS, 0);
+    }
+
+    /**
+     * Records the outcome of an attempt.  Anything other than LOCATION_STATUS_OK counts as a
+     * failure and pushes the next retry further out.  This should not be called from the UI
+     * thread because it uses commit to write to the shared preferences.
+     */
+    public void recordResult(String locationSetting,
+                             @SunshineSyncAdapter.LocationStatus int status, long now) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putInt(locationSetting + KEY_STATUS, status);
+        if (status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            editor.remove(locationSetting + KEY_FAILURES);
+            editor.remove(locationSetting + KEY_INVALID_RESPONSES);
+            editor.remove(locationSetting + KEY_NEXT_RETRY);
+            editor.putLong(locationSetting + KEY_LAST_SUCCESS, now);
+        } else {
+            int failures = getFailureCount(locationSetting) + 1;
+            long delay = RETRY_BASE_MILLIS << Math.min(failures - 1, 16);
+            editor.putInt(locationSetting + KEY_FAILURES, failures);
+            editor.putLong(locationSetting + KEY_NEXT_RETRY, now + Math.min(delay, RETRY_MAX_MILLIS));
+            if (status == SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID) {
+                editor.putInt(locationSetting + KEY_INVALID_RESPONSES,
+                        getInvalidResponseCount(locationSetting) + 1);
+            }
+        }
+        editor.commit();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects how long each stage of one sync pass took, and writes them to the sync timing table
+ * in one go at the end of the pass, so that timing the pass doesn't add a write per stage to it.
+ * Only used from the sync thread.
+ */
+class SyncTimingLedger {
+    private static final String LOG_TAG = SyncTimingLedger.class.getSimpleName();
+
+    private final long mSyncId;
+    private final List<ContentValues> mEntries = new ArrayList<ContentValues>();
+
+    /**
+     * @param syncId when the pass started, which identifies it in the table
+     */
+    SyncTimingLedger(long syncId) {
+        mSyncId = syncId;
+    }
+
+    /**
+     * @param locationSetting the location the stage worked on, or null if it covers the pass
+     */
+    void record(String locationSetting, String stage, long durationMillis, long bytes,
+                @SunshineSyncAdapter.LocationStatus int outcome) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncTimingEntry.COLUMN_SYNC_ID, mSyncId);
+        values.put(WeatherContract.SyncTimingEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.SyncTimingEntry.COLUMN_STAGE, stage);
+        values.put(WeatherContract.SyncTimingEntry.COLUMN_DURATION, durationMillis);
+        values.put(WeatherContract.SyncTimingEntry.COLUMN_BYTES, bytes);
+        values.put(WeatherContract.SyncTimingEntry.COLUMN_OUTCOME, outcome);
+        mEntries.add(values);
+    }
+
+    /**
+     * Records the network stages of a location's fetch.  Stages the fetch never got to are
+     * left out, rather than recorded as taking no time.
+     */
+    void recordFetch(LocationSyncTask.Result result) {
+        if (result.connectMillis < 0) {
+            return;
+        }
+        String location = result.locationSetting;
+        record(location, WeatherContract.SyncTimingEntry.STAGE_CONNECT,
+                result.connectMillis, 0, result.status);
+        record(location, WeatherContract.SyncTimingEntry.STAGE_FIRST_BYTE,
+                result.firstByteMillis, 0, result.status);
+        if (result.wireBytes > 0) {
+            record(location, WeatherContract.SyncTimingEntry.STAGE_DOWNLOAD,
+                    result.downloadMillis, result.wireBytes, result.status);
+            record(location, WeatherContract.SyncTimingEntry.STAGE_PARSE,
+                    result.parseMillis, result.decodedBytes, result.status);
+        }
+    }
+
+    void flush(Context context) {
+        if (mEntries.isEmpty()) {
+            return;
+        }
+        try {
+            context.getContentResolver().bulkInsert(WeatherContract.SyncTimingEntry.CONTENT_URI,
+                    mEntries.toArray(new ContentValues[mEntries.size()]));
+        } catch (RuntimeException e) {
+            // Losing the timings is no reason to fail the sync.
+            Log.e(LOG_TAG, "Error writing sync timings", e);
+        }
+        mEntries.clear();
+    }
+}
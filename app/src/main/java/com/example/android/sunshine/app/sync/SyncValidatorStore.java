@@ -0,0 +1,89 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Remembers, per location setting, what we last ingested: the HTTP validators the server gave
+ * us (ETag and Last-Modified) and a hash of the response body.  The sync adapter uses them to
+ * send a conditional request, and to skip the database and everything downstream of it when
+ * the server hands back exactly what we already have.
+ */
+public class SyncValidatorStore {
+    private static final String PREFS_NAME = "sync_validators";
+
+    private static final String KEY_ETAG = ".etag";
+    private static final String KEY_LAST_MODIFIED = ".last_modified";
+    private static final String KEY_CONTENT_HASH = ".content_hash";
+
+    static final String DIGEST_ALGORITHM = "SHA-1";
+
+    private final SharedPreferences mPrefs;
+
+    public SyncValidatorStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public String getETag(String locationSetting) {
+        return mPrefs.getString(locationSetting + KEY_ETAG, null);
+    }
+
+    /**
+     * @return the Last-Modified time in milliseconds, or 0 if we don't have one.
+     */
+    public long getLastModified(String locationSetting) {
+        return mPrefs.getLong(locationSetting + KEY_LAST_MODIFIED, 0);
+    }
+
+    public String getContentHash(String locationSetting) {
+        return mPrefs.getString(locationSetting + KEY_CONTENT_HASH, null);
+    }
+
+    /**
+     * Records the validators of a response that has been fully ingested.  This should not be
+     * called from the UI thread because it uses commit to write to the shared preferences.
+     *
+     * @param eTag the ETag header, or null if the server didn't send one
+     * @param lastModified the Last-Modified header in milliseconds, or 0 if the server didn't
+     *                     send one
+     * @param contentHash the hash of the response body
+     */
+    public void recordIngest(String locationSetting, String eTag, long lastModified,
+                             String contentHash) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (eTag != null) {
+            editor.putString(locationSetting + KEY_ETAG, eTag);
+        } else {
+            editor.remove(locationSetting + KEY_ETAG);
+        }
+        if (lastModified > 0) {
+            editor.putLong(locationSetting + KEY_LAST_MODIFIED, lastModified);
+        } else {
+            editor.remove(locationSetting + KEY_LAST_MODIFIED);
+        }
+        editor.putString(locationSetting + KEY_CONTENT_HASH, contentHash);
+        editor.commit();
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device is required to ship SHA-1.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        final char[] HEX = "0123456789abcdef".toCharArray();
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
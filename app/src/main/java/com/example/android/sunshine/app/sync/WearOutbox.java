@@ -0,0 +1,218 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the watch face should be showing, waiting to be delivered.  The watch only ever shows
+ * today's forecast, so the outbox holds a single payload and a newer one replaces whatever is
+ * still pending.  A payload identical to the last one delivered is dropped, and payloads go out
+ * non-urgent, so the Data API can batch them into the next time the radio is up anyway, unless
+ * the watch face is visibly stale: it asked for the weather, has never had any, or is showing
+ * another day's forecast.
+ *
+ * The outbox lives in shared preferences.  If the Data API can't be reached, the payload stays
+ * pending and is sent the next time anything connects to it: the next sync, the watch asking,
+ * or the app coming to the foreground.
+ */
+public class WearOutbox {
+    private static final String LOG_TAG = WearOutbox.class.getSimpleName();
+
+    static final String PREFS_NAME = "wear_outbox";
+
+    private static final String KEY_PENDING = "pending";
+    private static final String KEY_REQUESTED = "requested";
+    private static final String PREFIX_PENDING = "pending.";
+    private static final String PREFIX_DELIVERED = "delivered.";
+    private static final String FIELD_HIGH = "high";
+    private static final String FIELD_LOW = "low";
+    private static final String FIELD_WEATHER_ID = "weather_id";
+    private static final String FIELD_DATE = "date";
+
+    // The data item the watch face listens to, and its keys.
+    private static final String WEATHER_INFO_PATH = "/weather-info";
+    private static final String KEY_HIGH = "high";
+    private static final String KEY_LOW = "low";
+    private static final String KEY_WEATHER_ID = "weatherId";
+    // Makes every delivered item differ from the last, so the watch hears about a resend of the
+    // same weather after it asked.
+    private static final String KEY_SENT_TIME = "sentTime";
+
+    private final SharedPreferences mPrefs;
+
+    public WearOutbox(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Queues the forecast for the watch, unless it is what the watch already has.  This should
+     * not be called from the UI thread because it uses commit to write to the shared
+     * preferences.
+     *
+     * @param high the high, formatted as the watch shows it
+     * @param low the low, formatted as the watch shows it
+     * @param date the Julian day the forecast is for
+     * @return whether anything was queued
+     */
+    boolean enqueue(String high, String low, int weatherId, long date) {
+        if (!mPrefs.getBoolean(KEY_REQUESTED, false)
+                && isSame(PREFIX_DELIVERED, high, low, weatherId, date)) {
+            Log.d(LOG_TAG, "The watch already shows this forecast");
+            // Anything still pending is older than this, and must not replace it on the watch.
+            mPrefs.edit()
+                    .putBoolean(KEY_PENDING, false)
+                    .remove(PREFIX_PENDING + FIELD_HIGH)
+                    .remove(PREFIX_PENDING + FIELD_LOW)
+                    .remove(PREFIX_PENDING + FIELD_WEATHER_ID)
+                    .remove(PREFIX_PENDING + FIELD_DATE)
+                    .commit();
+            return false;
+        }
+        mPrefs.edit()
+                .putBoolean(KEY_PENDING, true)
+                .putString(PREFIX_PENDING + FIELD_HIGH, high)
+                .putString(PREFIX_PENDING + FIELD_LOW, low)
+                .putInt(PREFIX_PENDING + FIELD_WEATHER_ID, weatherId)
+                .putLong(PREFIX_PENDING + FIELD_DATE, date)
+                .commit();
+        return true;
+    }
+
+    /**
+     * Records that the watch asked for the weather.  The next delivery goes out urgently, even
+     * if it matches the last one.  This should not be called from the UI thread.
+     */
+    void markRequested() {
+        mPrefs.edit().putBoolean(KEY_REQUESTED, true).commit();
+    }
+
+    boolean hasPending() {
+        return mPrefs.getBoolean(KEY_PENDING, false);
+    }
+
+    /**
+     * Hands the pending payload, if there is one, to the Data API.  The client must be
+     * connected.  The payload stays pending until the Data API confirms it, so a failed
+     * delivery is tried again by the next flush.  Safe to call from any thread.
+     */
+    public void flush(GoogleApiClient client) {
+        Delivery delivery = prepare(client);
+        if (delivery != null) {
+            Wearable.DataApi.putDataItem(client, delivery.mRequest).setResultCallback(delivery);
+        }
+    }
+
+    /**
+     * Like {@link #flush}, but waits for the Data API's result, so the caller can disconnect
+     * the client afterwards.  This should not be called from the UI thread.
+     */
+    void flushAndWait(GoogleApiClient client, long timeoutMillis) {
+        Delivery delivery = prepare(client);
+        if (delivery != null) {
+            delivery.onResult(Wearable.DataApi.putDataItem(client, delivery.mRequest)
+                    .await(timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private Delivery prepare(GoogleApiClient client) {
+        if (!hasPending() || !client.isConnected()) {
+            return null;
+        }
+        Delivery delivery = new Delivery(
+                mPrefs.getString(PREFIX_PENDING + FIELD_HIGH, null),
+                mPrefs.getString(PREFIX_PENDING + FIELD_LOW, null),
+                mPrefs.getInt(PREFIX_PENDING + FIELD_WEATHER_ID, 0),
+                mPrefs.getLong(PREFIX_PENDING + FIELD_DATE, 0),
+                mPrefs.getBoolean(KEY_REQUESTED, false));
+        Log.d(LOG_TAG, "High:" + delivery.mHigh + ", Low:" + delivery.mLow + ", Condition ID: "
+                + delivery.mWeatherId + (delivery.mUrgent ? ", urgent" : ""));
+        return delivery;
+    }
+
+    /**
+     * One payload on its way to the Data API, and what to record once it is confirmed.
+     */
+    private class Delivery implements ResultCallback<DataApi.DataItemResult> {
+        final String mHigh;
+        final String mLow;
+        final int mWeatherId;
+        final long mDate;
+        final boolean mRequested;
+        final boolean mUrgent;
+        final PutDataRequest mRequest;
+
+        Delivery(String high, String low, int weatherId, long date, boolean requested) {
+            mHigh = high;
+            mLow = low;
+            mWeatherId = weatherId;
+            mDate = date;
+            mRequested = requested;
+
+            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_INFO_PATH);
+            putDataMapRequest.getDataMap().putString(KEY_HIGH, high);
+            putDataMapRequest.getDataMap().putString(KEY_LOW, low);
+            putDataMapRequest.getDataMap().putInt(KEY_WEATHER_ID, weatherId);
+            putDataMapRequest.getDataMap().putLong(KEY_SENT_TIME, System.currentTimeMillis());
+            mRequest = putDataMapRequest.asPutDataRequest();
+            mUrgent = isStale(requested, date);
+            if (mUrgent) {
+                mRequest.setUrgent();
+            }
+        }
+
+        @Override
+        public void onResult(DataApi.DataItemResult dataItemResult) {
+            if (!dataItemResult.getStatus().isSuccess()) {
+                Log.d(LOG_TAG, "Failed to send weather data, will retry");
+            } else {
+                Log.d(LOG_TAG, "Successfully sent weather data");
+                markDelivered(mHigh, mLow, mWeatherId, mDate, mRequested);
+            }
+        }
+    }
+
+    /**
+     * @return whether the watch face needs this payload right away, rather than whenever the
+     * Data API gets round to it.
+     */
+    private boolean isStale(boolean requested, long date) {
+        return requested || !mPrefs.contains(PREFIX_DELIVERED + FIELD_DATE)
+                || mPrefs.getLong(PREFIX_DELIVERED + FIELD_DATE, 0) != date;
+    }
+
+    private boolean isSame(String prefix, String high, String low, int weatherId, long date) {
+        return high.equals(mPrefs.getString(prefix + FIELD_HIGH, null))
+                && low.equals(mPrefs.getString(prefix + FIELD_LOW, null))
+                && weatherId == mPrefs.getInt(prefix + FIELD_WEATHER_ID, -1)
+                && date == mPrefs.getLong(prefix + FIELD_DATE, -1);
+    }
+
+    void markDelivered(String high, String low, int weatherId, long date,
+                       boolean requested) {
+        SharedPreferences.Editor editor = mPrefs.edit()
+                .putString(PREFIX_DELIVERED + FIELD_HIGH, high)
+                .putString(PREFIX_DELIVERED + FIELD_LOW, low)
+                .putInt(PREFIX_DELIVERED + FIELD_WEATHER_ID, weatherId)
+                .putLong(PREFIX_DELIVERED + FIELD_DATE, date);
+        // Something newer may have been queued while this one was in flight.  If so it stays
+        // pending.
+        if (isSame(PREFIX_PENDING, high, low, weatherId, date)) {
+            editor.putBoolean(KEY_PENDING, false);
+        }
+        if (requested) {
+            editor.putBoolean(KEY_REQUESTED, false);
+        }
+        // This runs on the client's callback thread, which may be the UI thread.
+        editor.apply();
+    }
+}
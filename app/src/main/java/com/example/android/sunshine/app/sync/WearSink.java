@@ -0,0 +1,79 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherSummary;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends today's forecast for the location to the watch face, through the {@link WearOutbox}.
+ */
+class WearSink implements ForecastSink {
+    private static final String LOG_TAG = WearSink.class.getSimpleName();
+
+    // Connecting to Play services and handing the payload to the Data API.  Delivery to the
+    // watch itself is asynchronous.
+    private static final long CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final long TIMEOUT_MILLIS = 15 * 1000;
+
+    private final Context mContext;
+    private final GoogleApiClient mGoogleApiClient;
+    private final WearOutbox mOutbox;
+
+    WearSink(Context context) {
+        mContext = context;
+        mOutbox = new WearOutbox(context);
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    @Override
+    public String getStage() {
+        return WeatherContract.SyncTimingEntry.STAGE_NOTIFY_WEAR;
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+        return TIMEOUT_MILLIS;
+    }
+
+    @Override
+    public void deliver(String locationSetting) {
+        int day = WeatherContract.getJulianDay(System.currentTimeMillis());
+        WeatherSummary today = WeatherSummary.load(mContext, locationSetting, day);
+        if (today != null && today.isFor(day)) {
+            // Compared as the watch shows them, so a change too small to show on the watch
+            // doesn't count as new, and a change of units does.
+            String high = Utility.formatTemperature(mContext, today.maxTemp);
+            String low = Utility.formatTemperature(mContext, today.minTemp);
+            mOutbox.enqueue(high, low, today.weatherId, today.date);
+        }
+
+        // Also picks up anything an earlier delivery left behind.
+        if (!mOutbox.hasPending()) {
+            return;
+        }
+        // Connected only for this delivery, so the sync doesn't keep Play services bound
+        // between passes.
+        ConnectionResult connectionResult = mGoogleApiClient.blockingConnect(
+                CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (!connectionResult.isSuccess()) {
+            Log.d(LOG_TAG, "Couldn't connect to the Data API, leaving the weather pending: "
+                    + connectionResult.getErrorCode());
+            return;
+        }
+        try {
+            mOutbox.flushAndWait(mGoogleApiClient, TIMEOUT_MILLIS - CONNECT_TIMEOUT_MILLIS);
+        } finally {
+            mGoogleApiClient.disconnect();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * A weather service the sync adapter can pull daily and hourly forecasts from.  The source
+ * knows how to ask for a forecast and how to read the answer; fetching, validators, retries and
+ * storing the result are the same for every source and stay in the sync code.
+ */
+public interface WeatherSource {
+
+    /**
+     * @return a name for the server requests go to, e.g. its host.  Failures are tracked per
+     * endpoint.
+     */
+    String getEndpoint();
+
+    /**
+     * @param locationSetting the location as the user entered it
+     * @param latitude the latitude to query by, or null to query by the location setting
+     * @param longitude the longitude to query by, or null to query by the location setting
+     * @param days how many days of forecast to ask for
+     * @return the url to GET the forecast from
+     */
+    URL buildForecastUrl(String locationSetting, String latitude, String longitude, int days)
+            throws IOException;
+
+    /**
+     * Parses a forecast response body.  The stream is consumed but not closed.
+     *
+     * @throws IOException if the stream could not be read
+     * @throws JSONException if the body is not a forecast this source understands
+     */
+    Forecast parseForecast(InputStream body) throws IOException, JSONException;
+
+    /**
+     * @param locationSetting the location as the user entered it
+     * @param latitude the latitude to query by, or null to query by the location setting
+     * @param longitude the longitude to query by, or null to query by the location setting
+     * @return the url to GET the hourly forecast from
+     */
+    URL buildHourlyForecastUrl(String locationSetting, String latitude, String longitude)
+            throws IOException;
+
+    /**
+     * Parses an hourly forecast response body.  The stream is consumed but not closed.
+     *
+     * @throws IOException if the stream could not be read
+     * @throws JSONException if the body is not a forecast this source understands
+     */
+    HourlyForecast parseHourlyForecast(InputStream body) throws IOException, JSONException;
+}
@@ -0,0 +1,38 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Tells the widgets to reload from the database.
+ */
+class WidgetSink implements ForecastSink {
+    // A broadcast only has to be queued.
+    private static final long TIMEOUT_MILLIS = 5 * 1000;
+
+    private final Context mContext;
+
+    WidgetSink(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public String getStage() {
+        return WeatherContract.SyncTimingEntry.STAGE_UPDATE_WIDGETS;
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+        return TIMEOUT_MILLIS;
+    }
+
+    @Override
+    public void deliver(String locationSetting) {
+        // Setting the package ensures that only components in our app will receive the broadcast
+        Intent dataUpdatedIntent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(mContext.getPackageName());
+        mContext.sendBroadcast(dataUpdatedIntent);
+    }
+}
@@ -16,6 +16,7 @@ import com.example.android.sunshine.app.DetailActivity;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 
 /**
  * Provider for a scrollable weather detail widget
@@ -24,6 +25,8 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 public class DetailWidgetProvider extends AppWidgetProvider {
 
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // The launcher is showing the widget, so the data is being looked at.
+        SyncScheduler.recordRead(context, SyncScheduler.READER_WIDGET);
         // Perform this loop procedure for each App Widget that belongs to this provider
         for (int appWidgetId : appWidgetIds) {
             RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_detail);
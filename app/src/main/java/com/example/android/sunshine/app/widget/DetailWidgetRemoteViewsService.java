@@ -67,7 +67,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 final long identityToken = Binder.clearCallingIdentity();
                 String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+                        .buildWeatherLocationWithStartDate(location,
+                                WeatherContract.getJulianDay(System.currentTimeMillis()));
                 data = getContentResolver().query(weatherForLocationUri,
                         FORECAST_COLUMNS,
                         null,
@@ -116,9 +117,9 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                     }
                 }
                 String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+                int julianDay = data.getInt(INDEX_WEATHER_DATE);
                 String formattedDate = Utility.getFriendlyDayString(
-                        DetailWidgetRemoteViewsService.this, dateInMillis, false);
+                        DetailWidgetRemoteViewsService.this, julianDay, false);
                 double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
                 double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
                 String formattedMaxTemperature =
@@ -144,7 +145,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
                         locationSetting,
-                        dateInMillis);
+                        julianDay);
                 fillInIntent.setData(weatherUri);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
                 return views;
@@ -23,6 +23,7 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 
 /**
  * Provider for a horizontally expandable widget showing today's weather.
@@ -34,6 +35,9 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // Only updates the launcher asks for count as someone looking; our own data updates
+        // don't.
+        SyncScheduler.recordRead(context, SyncScheduler.READER_WIDGET);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 